@@ -49,6 +49,55 @@ sourceSets {
     }
 }
 
+// JDK Flight Recorder events, compiled for Java 11 into the same jar, and only loaded if jdk.jfr is available
+val jfr: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + configurations.compileClasspath.get()
+}
+
+tasks.named<JavaCompile>(jfr.compileJavaTaskName) {
+    options.release.set(11)
+}
+
+tasks.jar {
+    from(jfr.output)
+}
+
+// JMH benchmarks, run with `./gradlew jmh`; JMH options can be passed with -PjmhArgs="...",
+// for example -PjmhArgs="SearchPathBenchmark -p classes=1000 -prof gc"
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[jmh.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+
+val jmhVersion = "1.37"
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    // Synthetic class files are generated once into this directory and reused by later runs
+    systemProperty("gjavah.jmh.data", buildDir.resolve("jmh-data").absolutePath)
+    (project.findProperty("jmhArgs") as String?)?.let { args(it.trim().split(Regex("\\s+"))) }
+}
+
+// Macro benchmark over the native classes of the running JDK, arguments: -PbenchmarkArgs="<iterations> <threads>"
+tasks.register<JavaExec>("runtimeImageBenchmark") {
+    group = "verification"
+    description = "Generates the headers of all native classes of the JDK runtime image and reports the throughput."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.glavo.javah.RuntimeImageBenchmark")
+    (project.findProperty("benchmarkArgs") as String?)?.let { args(it.trim().split(Regex("\\s+"))) }
+}
+
 tasks.compileJava {
     modularity.inferModulePath.set(true)
     options.release.set(9)
@@ -127,6 +176,7 @@ configure<PublishingExtension> {
 }
 
 tasks.test {
+    classpath += jfr.output
     useJUnitPlatform()
     testLogging.showStandardStreams = true
 }
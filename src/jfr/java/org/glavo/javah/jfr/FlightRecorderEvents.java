@@ -0,0 +1,67 @@
+package org.glavo.javah.jfr;
+
+import org.glavo.javah.ClassName;
+import org.glavo.javah.util.JNIGenerator;
+import org.glavo.javah.util.Metrics;
+
+/**
+ * Reports metrics as JDK Flight Recorder events.
+ * <p>
+ * This class is compiled for Java 11 and only loaded reflectively by {@link Metrics.Recorder#flightRecorder()},
+ * so gjavah still runs on Java 8 and without the {@code jdk.jfr} module.
+ */
+public final class FlightRecorderEvents implements Metrics.Recorder {
+    private FlightRecorderEvents() {
+    }
+
+    public static FlightRecorderEvents create() {
+        Module jfr = ModuleLayer.boot().findModule("jdk.jfr")
+                .orElseThrow(() -> new IllegalStateException("jdk.jfr is not resolved"));
+        // Does nothing on the class path, where every module is read
+        FlightRecorderEvents.class.getModule().addReads(jfr);
+        return new FlightRecorderEvents();
+    }
+
+    @Override
+    public Object classStarted() {
+        GenerateClassEvent event = new GenerateClassEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void classGenerated(Object started, ClassName name, JNIGenerator.Status status, Metrics metrics) {
+        GenerateClassEvent event = (GenerateClassEvent) started;
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.className = name.toString();
+        event.status = status.name();
+        event.searchTime = metrics.getNanos(Metrics.Phase.SEARCH);
+        event.readTime = metrics.getNanos(Metrics.Phase.READ);
+        event.parseTime = metrics.getNanos(Metrics.Phase.PARSE);
+        event.resolveTime = metrics.getNanos(Metrics.Phase.RESOLVE);
+        event.headerCacheTime = metrics.getNanos(Metrics.Phase.HEADER_CACHE);
+        event.renderTime = metrics.getNanos(Metrics.Phase.RENDER);
+        event.writeTime = metrics.getNanos(Metrics.Phase.WRITE);
+        event.lookups = metrics.get(Metrics.Counter.LOOKUPS);
+        event.bytesRead = metrics.get(Metrics.Counter.BYTES_READ);
+        event.bytesWritten = metrics.get(Metrics.Counter.BYTES_WRITTEN);
+        event.commit();
+    }
+
+    @Override
+    public void runFinished(Metrics metrics) {
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            PhaseEvent event = new PhaseEvent();
+            if (!event.shouldCommit()) {
+                return;
+            }
+            event.phase = phase.displayName();
+            event.totalTime = metrics.getNanos(phase);
+            event.count = metrics.getCount(phase);
+            event.commit();
+        }
+    }
+}
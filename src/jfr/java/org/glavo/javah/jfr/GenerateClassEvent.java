@@ -0,0 +1,55 @@
+package org.glavo.javah.jfr;
+
+import jdk.jfr.*;
+
+@Name("org.glavo.javah.GenerateClass")
+@Label("Generate JNI Header")
+@Category("gjavah")
+@Description("Generation of the header of one class, with the time spent in each phase")
+@StackTrace(false)
+final class GenerateClassEvent extends Event {
+    @Label("Class")
+    String className;
+
+    @Label("Status")
+    String status;
+
+    @Label("Search Time")
+    @Timespan
+    long searchTime;
+
+    @Label("Read Time")
+    @Timespan
+    long readTime;
+
+    @Label("Parse Time")
+    @Timespan
+    long parseTime;
+
+    @Label("Superclass Resolution Time")
+    @Timespan
+    long resolveTime;
+
+    @Label("Header Cache Time")
+    @Timespan
+    long headerCacheTime;
+
+    @Label("Render Time")
+    @Timespan
+    long renderTime;
+
+    @Label("Write Time")
+    @Timespan
+    long writeTime;
+
+    @Label("Lookups")
+    long lookups;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+}
@@ -0,0 +1,20 @@
+package org.glavo.javah.jfr;
+
+import jdk.jfr.*;
+
+@Name("org.glavo.javah.Phase")
+@Label("JNI Header Generation Phase")
+@Category("gjavah")
+@Description("Time spent in one phase by all classes of a run")
+@StackTrace(false)
+final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Total Time")
+    @Timespan
+    long totalTime;
+
+    @Label("Count")
+    long count;
+}
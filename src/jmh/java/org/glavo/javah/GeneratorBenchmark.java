@@ -0,0 +1,46 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.ClassPath;
+import org.glavo.javah.search.RuntimeSearchPath;
+import org.glavo.javah.search.SearchPath;
+import org.glavo.javah.util.JNIGenerator;
+import org.glavo.javah.util.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the headers of random synthetic classes with native methods from a jar, discarding the output.
+ * The class hierarchy cache of the generator is warm, as it is after the first classes of a run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+    @Param({"1000", "10000"})
+    public int classes;
+
+    private JNIGenerator generator;
+    private ClassName[] names;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        List<SearchPath> searchPaths = Arrays.asList(
+                new ClassPath(SyntheticClasses.get(SyntheticClasses.JAR, classes)), RuntimeSearchPath.INSTANCE);
+        generator = new JNIGenerator(null, searchPaths);
+        names = SyntheticClasses.sample(classes, 256, true).toArray(new ClassName[0]);
+    }
+
+    @Benchmark
+    public void generateTo() throws Exception {
+        ClassName name = names[next];
+        next = (next + 1) % names.length;
+        generator.generateTo(name, Utils.NOOP_WRITER);
+    }
+}
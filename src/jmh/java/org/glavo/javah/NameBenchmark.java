@@ -0,0 +1,63 @@
+package org.glavo.javah;
+
+import org.glavo.javah.util.NativeMethod;
+import org.glavo.javah.util.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameBenchmark {
+    private static final String[] CLASS_NAMES = {
+            "java.lang.Object",
+            "java.util.concurrent.ConcurrentHashMap$TreeBin",
+            "com.example.native_io.FileChannel_Impl",
+            "org.glavo.javah.JavahTask",
+            "synthetic.p42.C1042",
+            "café.Ünïcode$Inner"
+    };
+
+    private static final String[][] METHODS = {
+            {"open", "(Ljava/lang/String;I)J"},
+            {"read", "(J[BII)I"},
+            {"check", "(Ljava/lang/IllegalStateException;[[Ljava/lang/Object;)Ljava/lang/Class;"},
+            {"close_été", "(J)V"},
+            {"registerNatives", "()V"}
+    };
+
+    private int next;
+
+    private int next(int length) {
+        int i = next++;
+        if (next == length) {
+            next = 0;
+        }
+        return i;
+    }
+
+    @Benchmark
+    public String mangleName() {
+        return Utils.mangleName(CLASS_NAMES[next(CLASS_NAMES.length)]);
+    }
+
+    @Benchmark
+    public String escape() {
+        return Utils.escape(METHODS[next(METHODS.length)][1]);
+    }
+
+    @Benchmark
+    public ClassName ofFullName() {
+        return ClassName.ofFullName(CLASS_NAMES[next(CLASS_NAMES.length)]);
+    }
+
+    @Benchmark
+    public NativeMethod nativeMethodOf() {
+        String[] method = METHODS[next(METHODS.length)];
+        return NativeMethod.of(method[0], method[1]);
+    }
+}
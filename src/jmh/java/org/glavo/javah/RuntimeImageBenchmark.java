@@ -0,0 +1,233 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.ClassIndex;
+import org.glavo.javah.search.RuntimeSearchPath;
+import org.glavo.javah.search.SearchPath;
+import org.glavo.javah.util.ClassFileScanner;
+import org.glavo.javah.util.ClassMetaInfo;
+import org.objectweb.asm.ClassReader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A macro benchmark that generates, through {@link JavahTask}, the headers of every class of the running JDK's
+ * runtime image that declares native methods. Classes are looked up either with {@link RuntimeSearchPath},
+ * or with an index of the {@code jrt:/modules} directories built once up front.
+ * <p>
+ * For each iteration it reports the wall time, the throughput, the allocation rate (only when run on one thread),
+ * the peak heap usage and the number of search path lookups. It then checks the declarations gjavah generates
+ * against {@code javac -h} for synthetic sources, so that correctness is tracked along with speed.
+ * <p>
+ * Usage: {@code RuntimeImageBenchmark [iterations] [parallelism]}
+ */
+public final class RuntimeImageBenchmark {
+    private static final int JAVAC_CLASSES = 20;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        List<Path> moduleRoots;
+        try (Stream<Path> stream = Files.list(jrt.getPath("/modules"))) {
+            moduleRoots = stream.sorted().collect(Collectors.toList());
+        }
+        List<ClassName> classes = nativeClasses(moduleRoots);
+        System.out.printf("%d classes with native methods in %d modules of %s%n",
+                classes.size(), moduleRoots.size(), System.getProperty("java.home"));
+
+        Path outputDir = Files.createTempDirectory("gjavah-benchmark");
+        try {
+            run("runtime", RuntimeSearchPath.INSTANCE, classes, outputDir, iterations, parallelism);
+            run("indexed", new ClassIndex(moduleRoots), classes, outputDir, iterations, parallelism);
+        } finally {
+            delete(outputDir);
+        }
+
+        compareWithJavac();
+    }
+
+    private static List<ClassName> nativeClasses(List<Path> moduleRoots) throws IOException {
+        List<ClassName> classes = new ArrayList<>();
+        for (Path moduleRoot : moduleRoots) {
+            String module = moduleRoot.getFileName().toString();
+            List<Path> files;
+            try (Stream<Path> stream = Files.walk(moduleRoot)) {
+                files = stream.filter(p -> p.toString().endsWith(".class") && !p.endsWith("module-info.class"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                byte[] bytes = Files.readAllBytes(file);
+                if (!ClassFileScanner.hasNativeMethodsOrConstants(bytes)) {
+                    continue;
+                }
+                ClassMetaInfo meta = new ClassMetaInfo();
+                new ClassReader(bytes).accept(meta, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                if (!meta.methods.isEmpty()) {
+                    classes.add(ClassName.of(module, meta.name.className()));
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static void run(String mode, SearchPath searchPath, List<ClassName> classes, Path outputDir,
+                            int iterations, int parallelism) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        long threadId = Thread.currentThread().getId();
+
+        System.out.printf("%n%s (%d thread(s)):%n", mode, parallelism);
+        for (int i = 0; i <= iterations; i++) {
+            CountingSearchPath counting = new CountingSearchPath(searchPath);
+            JavahTask task = new JavahTask();
+            task.addSearchPath(counting);
+            classes.forEach(task::addClass);
+            task.setOutputDir(outputDir);
+            task.setParallelism(parallelism);
+            task.setErrorHandle(new StringWriter());
+
+            System.gc();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            task.run();
+            long time = System.nanoTime() - start;
+            allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+            long peak = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+
+            double seconds = time / 1e9;
+            System.out.printf("  %-9s %8.1f ms %8.0f classes/s %10s %8.1f MB peak heap %8d lookups%n",
+                    i == 0 ? "warmup" : "#" + i,
+                    time / 1e6,
+                    classes.size() / seconds,
+                    parallelism == 1 ? String.format("%.1f MB/s", allocated / seconds / (1 << 20)) : "n/a",
+                    peak / (double) (1 << 20),
+                    counting.lookups.sum());
+        }
+    }
+
+    /*
+     * Compiles synthetic classes with javac -h, generates their headers with gjavah, and compares
+     * the function declarations of both, ignoring file names, comments and constants.
+     */
+    private static void compareWithJavac() throws IOException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            System.out.printf("%njavac is not available, skipping the comparison%n");
+            return;
+        }
+
+        Path dir = Files.createTempDirectory("gjavah-javac");
+        try {
+            Path sources = dir.resolve("src");
+            Path classes = dir.resolve("classes");
+            Path javacHeaders = dir.resolve("javac");
+            Path gjavahHeaders = dir.resolve("gjavah");
+            Files.createDirectories(sources.resolve("bench"));
+
+            List<String> arguments = new ArrayList<>(Arrays.asList(
+                    "-encoding", "UTF-8", "-d", classes.toString(), "-h", javacHeaders.toString()));
+            JavahTask task = new JavahTask();
+            for (int i = 0; i < JAVAC_CLASSES; i++) {
+                Path source = sources.resolve("bench").resolve("N" + i + ".java");
+                Files.write(source, source(i).getBytes(StandardCharsets.UTF_8));
+                arguments.add(source.toString());
+                task.addClass("bench.N" + i);
+            }
+            if (javac.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+                System.out.printf("%njavac failed, skipping the comparison%n");
+                return;
+            }
+
+            task.addClassPath(classes);
+            task.addRuntimeSearchPath();
+            task.setOutputDir(gjavahHeaders);
+            task.setErrorHandle(new StringWriter());
+            task.run();
+
+            Set<String> expected = declarations(javacHeaders);
+            Set<String> actual = declarations(gjavahHeaders);
+            Set<String> missing = new TreeSet<>(expected);
+            missing.removeAll(actual);
+            Set<String> unexpected = new TreeSet<>(actual);
+            unexpected.removeAll(expected);
+
+            System.out.printf("%njavac -h comparison: %d of %d declarations match%n",
+                    expected.size() - missing.size(), expected.size());
+            missing.stream().limit(5).forEach(d -> System.out.println("  javac only:  " + d));
+            unexpected.stream().limit(5).forEach(d -> System.out.println("  gjavah only: " + d));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static String source(int i) {
+        return "package bench;\n" +
+                "public class N" + i + " {\n" +
+                "    public static final int CONSTANT = " + i + ";\n" +
+                "    native int f(int a);\n" +
+                "    native void f(String s, long[] a);\n" +
+                "    static native Object[] g(Class<?> c, Throwable t, RuntimeException e);\n" +
+                "    native boolean under_score" + i + "(double d, float f, short s, byte b);\n" +
+                "    native String ünïcode(char c, boolean[][] z);\n" +
+                "    static native void h();\n" +
+                "}\n";
+    }
+
+    private static Set<String> declarations(Path dir) throws IOException {
+        Set<String> declarations = new HashSet<>();
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            files = stream.collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (int i = 0; i + 1 < lines.size(); i++) {
+                if (lines.get(i).startsWith("JNIEXPORT")) {
+                    declarations.add(lines.get(i).trim() + " " + lines.get(i + 1).trim());
+                }
+            }
+        }
+        return declarations;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) stream.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private static final class CountingSearchPath implements SearchPath {
+        final SearchPath delegate;
+        final LongAdder lookups = new LongAdder();
+
+        CountingSearchPath(SearchPath delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Path search(ClassName name) {
+            lookups.increment();
+            return delegate.search(name);
+        }
+    }
+}
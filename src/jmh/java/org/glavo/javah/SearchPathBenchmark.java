@@ -0,0 +1,81 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.ArchivePool;
+import org.glavo.javah.search.ClassIndex;
+import org.glavo.javah.search.ClassPath;
+import org.glavo.javah.search.SearchPath;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up random synthetic classes, one in eight of them missing, in a directory, a jar or a multi-release jar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchPathBenchmark {
+    @Param({SyntheticClasses.DIRECTORY, SyntheticClasses.JAR, SyntheticClasses.MULTI_RELEASE_JAR})
+    public String kind;
+
+    @Param({"1000", "10000", "100000"})
+    public int classes;
+
+    private ArchivePool pool;
+    private List<Path> roots;
+    private ClassPath classPath;
+    private ClassName[] names;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        Path path = SyntheticClasses.get(kind, classes).toAbsolutePath();
+        pool = new ArchivePool();
+        roots = SearchPath.multiReleaseRoots(Files.isDirectory(path) ? path : pool.root(path));
+        classPath = new ClassPath(path, pool);
+        classPath.index().names();
+
+        List<ClassName> sample = new ArrayList<>(SyntheticClasses.sample(classes, 1024, false));
+        for (int i = 0; i < sample.size(); i += 8) {
+            sample.set(i, ClassName.ofFullName("synthetic.missing.M" + i));
+        }
+        names = sample.toArray(new ClassName[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    private ClassName next() {
+        ClassName name = names[next];
+        next = (next + 1) % names.length;
+        return name;
+    }
+
+    @Benchmark
+    public Path searchFromRoots() {
+        return SearchPath.searchFromRoots(roots, next());
+    }
+
+    @Benchmark
+    public Path classPathIndex() {
+        return classPath.search(next());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int buildIndex() {
+        return new ClassIndex(roots).names().size();
+    }
+}
@@ -0,0 +1,163 @@
+package org.glavo.javah;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates reproducible synthetic class files for the benchmarks.
+ * <p>
+ * Class {@code i} is {@code synthetic.p<i % 100>.C<i>}. Every tenth class declares native methods
+ * (including an overload and a {@code jthrowable} parameter), every seventh declares constants,
+ * and every class has a few ordinary methods. The class files are written once into the directory
+ * named by the {@code gjavah.jmh.data} system property, and reused by later runs.
+ */
+public final class SyntheticClasses {
+    public static final String DIRECTORY = "directory";
+    public static final String JAR = "jar";
+    public static final String MULTI_RELEASE_JAR = "multi-release";
+
+    private SyntheticClasses() {
+    }
+
+    public static String internalName(int i) {
+        return "synthetic/p" + (i % 100) + "/C" + i;
+    }
+
+    public static ClassName name(int i) {
+        return ClassName.ofInternalName(internalName(i));
+    }
+
+    public static boolean hasNativeMethods(int i) {
+        return i % 10 == 0;
+    }
+
+    /**
+     * Returns the names of {@code sampleSize} classes among the first {@code count}, chosen with a fixed seed.
+     */
+    public static List<ClassName> sample(int count, int sampleSize, boolean nativeOnly) {
+        Random random = new Random(42);
+        List<ClassName> names = new ArrayList<>(sampleSize);
+        while (names.size() < sampleSize) {
+            int i = random.nextInt(count);
+            if (nativeOnly) {
+                i -= i % 10;
+            }
+            names.add(name(i));
+        }
+        return names;
+    }
+
+    public static byte[] classFile(int i) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalName(i), null, "java/lang/Object", null);
+
+        if (i % 7 == 0) {
+            cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "MAX_VALUE", "I", null, i).visitEnd();
+            cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "SCALE", "D", null, i / 3.0).visitEnd();
+        }
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "NAME", "Ljava/lang/String;", null, "C" + i).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE, "handle", "J", null, null).visitEnd();
+
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (int m = 0; m < 4; m++) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "method" + m, "(I)I", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitLdcInsn(m);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        if (hasNativeMethods(i)) {
+            cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_NATIVE, "open", "(Ljava/lang/String;I)J", null, null).visitEnd();
+            cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_NATIVE, "read", "(J[BII)I", null, null).visitEnd();
+            cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_NATIVE, "read", "(JLjava/nio/ByteBuffer;)I", null, null).visitEnd();
+            cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_NATIVE, "check",
+                    "(Ljava/lang/IllegalStateException;[[Ljava/lang/Object;)Ljava/lang/Class;", null, null).visitEnd();
+            cw.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_NATIVE, "close_été", "(J)V", null, null).visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Returns a class path entry of the given kind containing the first {@code count} synthetic classes.
+     * In the multi-release jar, every third class also has a version specific copy.
+     */
+    public static synchronized Path get(String kind, int count) throws IOException {
+        Path dataDir = Paths.get(System.getProperty("gjavah.jmh.data", "build/jmh-data")).toAbsolutePath();
+        Files.createDirectories(dataDir);
+        switch (kind) {
+            case DIRECTORY: {
+                Path dir = dataDir.resolve("classes-" + count);
+                Path complete = dir.resolve(".complete");
+                if (Files.notExists(complete)) {
+                    for (int i = 0; i < count; i++) {
+                        Path file = dir.resolve(internalName(i) + ".class");
+                        Files.createDirectories(file.getParent());
+                        Files.write(file, classFile(i));
+                    }
+                    Files.createFile(complete);
+                }
+                return dir;
+            }
+            case JAR:
+            case MULTI_RELEASE_JAR: {
+                boolean multiRelease = kind.equals(MULTI_RELEASE_JAR);
+                Path jar = dataDir.resolve((multiRelease ? "multi-release-" : "classes-") + count + ".jar");
+                if (Files.notExists(jar)) {
+                    Path tmp = Files.createTempFile(dataDir, "classes", ".tmp");
+                    writeJar(tmp, count, multiRelease);
+                    Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return jar;
+            }
+            default:
+                throw new IllegalArgumentException(kind);
+        }
+    }
+
+    private static void writeJar(Path file, int count, boolean multiRelease) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (multiRelease) {
+            manifest.getMainAttributes().putValue("Multi-Release", "true");
+        }
+        try (OutputStream out = Files.newOutputStream(file);
+             JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = classFile(i);
+                jar.putNextEntry(new JarEntry(internalName(i) + ".class"));
+                jar.write(bytes);
+                jar.closeEntry();
+                if (multiRelease && i % 3 == 0) {
+                    jar.putNextEntry(new JarEntry("META-INF/versions/9/" + internalName(i) + ".class"));
+                    jar.write(bytes);
+                    jar.closeEntry();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.glavo.javah.util;
+
+import org.glavo.javah.ClassName;
+import org.glavo.javah.SyntheticClasses;
+import org.glavo.javah.search.ArchivePool;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways class files are read and classified, per class file of the synthetic classes.
+ * Run with {@code -prof gc} to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassFileBenchmark {
+    @Param({SyntheticClasses.DIRECTORY, SyntheticClasses.JAR})
+    public String kind;
+
+    private static final int SAMPLE_SIZE = 1000;
+
+    private ArchivePool pool;
+    private Path[] files;
+    private byte[][] bytes;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        Path path = SyntheticClasses.get(kind, SAMPLE_SIZE).toAbsolutePath();
+        pool = new ArchivePool();
+        Path root = Files.isDirectory(path) ? path : pool.root(path);
+        files = new Path[SAMPLE_SIZE];
+        bytes = new byte[SAMPLE_SIZE][];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            files[i] = root.resolve(SyntheticClasses.internalName(i) + ".class");
+            bytes[i] = Files.readAllBytes(files[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    private int next() {
+        int i = next;
+        next = (next + 1) % SAMPLE_SIZE;
+        return i;
+    }
+
+    @Benchmark
+    public boolean prescan() {
+        return ClassFileScanner.hasNativeMethodsOrConstants(bytes[next()]);
+    }
+
+    @Benchmark
+    public boolean parse() {
+        ClassMetaInfo meta = new ClassMetaInfo();
+        new ClassReader(bytes[next()]).accept(meta, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return !meta.methods.isEmpty() || !meta.constants.isEmpty();
+    }
+
+    @Benchmark
+    public ClassName readWithInputStream() throws Exception {
+        try (InputStream in = Files.newInputStream(files[next()])) {
+            return Utils.superClassOf(new ClassReader(in));
+        }
+    }
+
+    @Benchmark
+    public ClassName readWithBuffer() throws Exception {
+        return Utils.superClassOf(ClassFileBuffer.read(files[next()]).reader());
+    }
+}
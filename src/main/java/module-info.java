@@ -1,7 +1,9 @@
 module org.glavo.javah {
     requires org.objectweb.asm;
     requires jdk.zipfs;
+    requires static java.compiler;
 
     exports org.glavo.javah;
     exports org.glavo.javah.search;
+    exports org.glavo.javah.util;
 }
\ No newline at end of file
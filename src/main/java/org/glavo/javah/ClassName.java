@@ -1,26 +1,54 @@
 package org.glavo.javah;
 
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.glavo.javah.util.Utils.*;
 
 public final class ClassName {
+    /*
+     * Instances are interned, so that the names met again and again while reading class files
+     * (super classes, parameter types) are mangled only once, and internal names are also validated only once.
+     * Module-qualified names are interned per module, so that they never share a key with a class name.
+     * The caches are simply emptied when they are full.
+     */
+    private static final int MAX_CACHED_NAMES = 8192;
+    private static final ConcurrentHashMap<String, ClassName> NAMES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, ClassName>> MODULE_NAMES =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ClassName> INTERNAL_NAMES = new ConcurrentHashMap<>();
+
     private final String moduleName;
     private final String className;
     private final String simpleName;
     private final String mangledName;
+    private final int hash;
+    private String relativePath;
 
     public static ClassName of(String moduleName, String className) {
         Objects.requireNonNull(className, "Class name is null");
-
         if (moduleName != null && !FULL_NAME_PATTERN.matcher(moduleName).matches()) {
             throw new IllegalArgumentException("Illegal module name: " + moduleName);
         }
         if (!FULL_NAME_PATTERN.matcher(className).matches()) {
-            throw new IllegalArgumentException("Illegal class name: " + moduleName);
+            throw new IllegalArgumentException("Illegal class name: " + className);
         }
 
-        return new ClassName(moduleName, className);
+        ConcurrentHashMap<String, ClassName> cache = NAMES;
+        if (moduleName != null) {
+            cache = MODULE_NAMES.get(moduleName);
+            if (cache == null) {
+                if (MODULE_NAMES.size() >= MAX_CACHED_NAMES) {
+                    MODULE_NAMES.clear();
+                }
+                cache = MODULE_NAMES.computeIfAbsent(moduleName, m -> new ConcurrentHashMap<>());
+            }
+        }
+        ClassName name = cache.get(className);
+        if (name != null) {
+            return name;
+        }
+        return intern(cache, className, new ClassName(moduleName, className));
     }
 
     /* Example: "java.base/java.lang.Object" */
@@ -35,7 +63,19 @@ public final class ClassName {
     }
 
     public static ClassName ofInternalName(String name) {
-        return of(null, name.replace('/', '.'));
+        ClassName className = INTERNAL_NAMES.get(name);
+        if (className != null) {
+            return className;
+        }
+        return intern(INTERNAL_NAMES, name, of(null, name.replace('/', '.')));
+    }
+
+    private static ClassName intern(ConcurrentHashMap<String, ClassName> cache, String key, ClassName name) {
+        if (cache.size() >= MAX_CACHED_NAMES) {
+            cache.clear();
+        }
+        ClassName previous = cache.putIfAbsent(key, name);
+        return previous != null ? previous : name;
     }
 
     private ClassName(String moduleName, String className) {
@@ -43,6 +83,7 @@ public final class ClassName {
         this.className = className;
         this.simpleName = className.substring(className.lastIndexOf('.') + 1);
         this.mangledName = mangleName(className);
+        this.hash = Objects.hash(moduleName, className);
     }
 
     @Override
@@ -50,12 +91,12 @@ public final class ClassName {
         if (this == o) return true;
         if (!(o instanceof ClassName)) return false;
         ClassName className1 = (ClassName) o;
-        return Objects.equals(moduleName, className1.moduleName) && className.equals(className1.className);
+        return hash == className1.hash && Objects.equals(moduleName, className1.moduleName) && className.equals(className1.className);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(moduleName, className);
+        return hash;
     }
 
     @Override
@@ -85,6 +126,10 @@ public final class ClassName {
     }
 
     public final String relativePath() {
-        return className.replace('.', '/') + ".class";
+        String path = relativePath;
+        if (path == null) {
+            relativePath = path = className.replace('.', '/') + ".class";
+        }
+        return path;
     }
 }
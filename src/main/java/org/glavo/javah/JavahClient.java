@@ -0,0 +1,70 @@
+package org.glavo.javah;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Sends a command line to a running {@link JavahDaemon} and relays its output.
+ */
+final class JavahClient {
+    private JavahClient() {
+    }
+
+    /**
+     * Returns the exit status of the command, or {@code null} if no daemon could be reached.
+     */
+    static Integer run(Path portFile, String[] args, Path workingDir, String classPathEnv,
+                       OutputStream stdout, OutputStream stderr) throws IOException {
+        int port;
+        String token;
+        try {
+            String[] content = new String(Files.readAllBytes(portFile), StandardCharsets.UTF_8).trim().split(" ");
+            port = Integer.parseInt(content[0]);
+            token = content[1];
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (IOException e) {
+            return null;
+        }
+
+        try (Socket s = socket;
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()))) {
+            out.writeInt(JavahDaemon.MAGIC);
+            JavahDaemon.writeString(out, token);
+            JavahDaemon.writeString(out, workingDir.toAbsolutePath().toString());
+            out.writeBoolean(classPathEnv != null);
+            if (classPathEnv != null) {
+                JavahDaemon.writeString(out, classPathEnv);
+            }
+            out.writeInt(args.length);
+            for (String arg : args) {
+                JavahDaemon.writeString(out, arg);
+            }
+            out.flush();
+
+            while (true) {
+                int type = in.readUnsignedByte();
+                if (type == JavahDaemon.FRAME_EXIT) {
+                    stdout.flush();
+                    stderr.flush();
+                    return in.readInt();
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                OutputStream target = type == JavahDaemon.FRAME_OUT ? stdout : stderr;
+                target.write(bytes);
+                target.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.*;
+import org.glavo.javah.util.ClassHierarchy;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-lived server that runs command lines sent by {@link JavahClient} on the loopback interface.
+ * <p>
+ * Opened archives and their indexes are shared by all requests through a {@link SearchPathCache}.
+ * A class hierarchy is shared by the requests with the same search paths, and dropped as soon as
+ * an archive on them, or a package of a directory on the class path that was looked up, changes. Requests are processed concurrently.
+ */
+final class JavahDaemon implements Closeable {
+    static final int MAGIC = 0x4A484432; // "JHD2"
+
+    static final int FRAME_EXIT = 0;
+    static final int FRAME_OUT = 1;
+    static final int FRAME_ERR = 2;
+
+    private static final int MAX_HIERARCHIES = 16;
+
+    private final ServerSocket server;
+    private final String token;
+    private final SearchPathCache searchPathCache = new SearchPathCache();
+    private final Map<String, HierarchyEntry> hierarchies = new LinkedHashMap<String, HierarchyEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HierarchyEntry> eldest) {
+            return size() > MAX_HIERARCHIES;
+        }
+    };
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "gjavah-daemon-request");
+        t.setDaemon(true);
+        return t;
+    });
+    private Path portFile;
+
+    JavahDaemon() throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        this.token = builder.toString();
+    }
+
+    /**
+     * Writes the port and the token clients must present to {@code portFile}, readable by the owner only.
+     */
+    void publish(Path portFile) throws IOException {
+        Path tmp = portFile.resolveSibling(portFile.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        Files.createFile(tmp);
+        try {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignored) {
+        }
+        Files.write(tmp, (server.getLocalPort() + " " + token + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, portFile, StandardCopyOption.REPLACE_EXISTING);
+        this.portFile = portFile;
+    }
+
+    void serve() throws IOException {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            executor.execute(() -> handle(socket));
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            if (in.readInt() != MAGIC || !token.equals(readString(in, token.length()))) {
+                return;
+            }
+            Path workingDir = Paths.get(readString(in));
+            String classPathEnv = in.readBoolean() ? readString(in) : null;
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = readString(in);
+            }
+
+            PrintWriter stdout = new PrintWriter(new BufferedWriter(new FrameWriter(out, FRAME_OUT)), true);
+            PrintWriter stderr = new PrintWriter(new BufferedWriter(new FrameWriter(out, FRAME_ERR)), true);
+            int status;
+            HierarchyEntry[] entry = new HierarchyEntry[1];
+            try (JavahTask task = new JavahTask()) {
+                task.setSearchPathCache(searchPathCache);
+                status = Main.run(args, workingDir, classPathEnv, stdout, stderr, task, t -> entry[0] = prepare(t));
+                if (entry[0] != null) {
+                    entry[0].record(task.getSearchPaths());
+                }
+            } catch (Throwable ex) {
+                ex.printStackTrace(stderr);
+                status = 1;
+            }
+            stdout.flush();
+            stderr.flush();
+            synchronized (out) {
+                out.writeByte(FRAME_EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // The client went away
+        }
+    }
+
+    /*
+     * Strings are sent as length-prefixed UTF-8, since writeUTF is limited to 64 KB,
+     * which a class path easily exceeds.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return readString(in, Integer.MAX_VALUE);
+    }
+
+    /*
+     * Rejects strings longer than maxLength bytes before allocating them, such as the token of a client
+     * that is not authenticated yet.
+     */
+    static String readString(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Shares the class hierarchy of the previous requests with the same search paths, unless they changed.
+     * Returns the entry of the hierarchy, or null if the search paths cannot be compared.
+     */
+    private HierarchyEntry prepare(JavahTask task) {
+        List<SearchPath> searchPaths = task.getSearchPaths();
+        for (SearchPath searchPath : searchPaths) {
+            if (!(searchPath instanceof ClassPath || searchPath instanceof ModulePath
+                    || searchPath == RuntimeSearchPath.INSTANCE)) {
+                return null;
+            }
+        }
+
+        String key = searchPaths.toString();
+        HierarchyEntry entry;
+        synchronized (hierarchies) {
+            entry = hierarchies.get(key);
+        }
+        if (entry == null || !entry.isValidFor(searchPaths)) {
+            HierarchyEntry e = new HierarchyEntry(searchPaths);
+            synchronized (hierarchies) {
+                HierarchyEntry current = hierarchies.get(key);
+                if (current == null || current == entry) {
+                    hierarchies.put(key, e);
+                    entry = e;
+                } else {
+                    entry = current;
+                }
+            }
+        }
+        task.setClassHierarchy(entry.hierarchy);
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        executor.shutdownNow();
+        searchPathCache.close();
+        if (portFile != null) {
+            Files.deleteIfExists(portFile);
+        }
+    }
+
+    /*
+     * Archives and module paths are compared by identity, since the search path cache returns the same instance
+     * as long as their size and modification time are unchanged. Directories on the class path are indexed anew
+     * for every request, so only the packages listed by the requests are stamped again, instead of walking them.
+     */
+    private static final class HierarchyEntry {
+        final List<SearchPath> searchPaths;
+        // The stamps of the packages listed in each directory on the search paths, null for other search paths
+        final List<Map<String, Long>> packageStamps;
+        final ClassHierarchy hierarchy = new ClassHierarchy();
+
+        HierarchyEntry(List<SearchPath> searchPaths) {
+            this.searchPaths = new ArrayList<>(searchPaths);
+            this.packageStamps = new ArrayList<>(searchPaths.size());
+            for (SearchPath searchPath : searchPaths) {
+                packageStamps.add(isDirectory(searchPath) ? new ConcurrentHashMap<>() : null);
+            }
+        }
+
+        boolean isValidFor(List<SearchPath> current) {
+            if (current.size() != searchPaths.size()) {
+                return false;
+            }
+            for (int i = 0; i < current.size(); i++) {
+                SearchPath searchPath = current.get(i);
+                Map<String, Long> stamps = packageStamps.get(i);
+                if (stamps == null) {
+                    if (searchPath != searchPaths.get(i)) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (!searchPaths.get(i).equals(searchPath) || !isDirectory(searchPath)) {
+                    return false;
+                }
+                ClassIndex index = ((ClassPath) searchPath).index();
+                for (Map.Entry<String, Long> e : stamps.entrySet()) {
+                    if (index.packageStamp(e.getKey()) != e.getValue()) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /*
+         * Records the packages listed by a request. A package already recorded keeps its first stamp,
+         * so that the entry is dropped by the next request if it changed in the meantime.
+         */
+        void record(List<SearchPath> current) {
+            for (int i = 0; i < current.size() && i < packageStamps.size(); i++) {
+                Map<String, Long> stamps = packageStamps.get(i);
+                if (stamps != null && current.get(i) instanceof ClassPath) {
+                    ((ClassPath) current.get(i)).index().packageStamps().forEach(stamps::putIfAbsent);
+                }
+            }
+        }
+
+        private static boolean isDirectory(SearchPath searchPath) {
+            return searchPath instanceof ClassPath && Files.isDirectory(((ClassPath) searchPath).getPath());
+        }
+    }
+
+    private static final class FrameWriter extends Writer {
+        private final DataOutputStream out;
+        private final int type;
+
+        FrameWriter(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            byte[] bytes = new String(cbuf, off, len).getBytes(StandardCharsets.UTF_8);
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.glavo.javah;
+
+import org.glavo.javah.util.ClassHierarchy;
+import org.glavo.javah.util.ClassMetaInfo;
+import org.glavo.javah.util.JNIGenerator;
+import org.objectweb.asm.Opcodes;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Generates headers while the classes are compiled, from the native methods and constants of their elements,
+ * so the class files need not be read again. Reference types are mapped to {@code jthrowable} or {@code jobject}
+ * through {@link Types#isSubtype(TypeMirror, TypeMirror)}, and headers are rendered as by {@link JNIGenerator}.
+ * <p>
+ * The processor is not registered as a service, so that javac does not run it in every compilation that has
+ * gjavah on its class path; it is enabled with {@code -processor org.glavo.javah.JavahProcessor}.
+ * Headers are generated for every compiled class, including nested classes, that declares native methods
+ * or constants, into the directory given by the {@code gjavah.outputDir} option. Without this option
+ * the processor supports no annotation types and does nothing. With {@code -Agjavah.incremental=true},
+ * headers whose content did not change are left untouched.
+ * <p>
+ * Methods javac generates, such as bridge methods, are not elements, so unlike a header generated from the
+ * class file, an overloaded native method is only given its long name when overloaded in the source.
+ */
+public class JavahProcessor extends AbstractProcessor {
+    public static final String OUTPUT_DIR_OPTION = "gjavah.outputDir";
+    public static final String INCREMENTAL_OPTION = "gjavah.incremental";
+
+    private Types types;
+    private Elements elements;
+    private Messager messager;
+    private JNIGenerator generator;
+    private ClassHierarchy hierarchy;
+    private TypeMirror throwableType;
+    // Binary names of the classes whose types could not be resolved yet
+    private final Set<String> deferred = new LinkedHashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        // Claiming no annotation types without an output directory, javac does not call the processor at all
+        return isInitialized() && processingEnv.getOptions().containsKey(OUTPUT_DIR_OPTION)
+                ? Collections.singleton("*")
+                : Collections.emptySet();
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return new HashSet<>(Arrays.asList(OUTPUT_DIR_OPTION, INCREMENTAL_OPTION));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        types = processingEnv.getTypeUtils();
+        elements = processingEnv.getElementUtils();
+        messager = processingEnv.getMessager();
+
+        String outputDir = processingEnv.getOptions().get(OUTPUT_DIR_OPTION);
+        if (outputDir != null) {
+            hierarchy = new ClassHierarchy();
+            generator = new JNIGenerator(Paths.get(outputDir), null, null, hierarchy);
+            generator.setIncremental(Boolean.parseBoolean(processingEnv.getOptions().get(INCREMENTAL_OPTION)));
+            TypeElement throwable = elements.getTypeElement("java.lang.Throwable");
+            throwableType = throwable == null ? null : throwable.asType();
+        }
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generator == null) {
+            return false;
+        }
+
+        List<TypeElement> classes = new ArrayList<>();
+        for (String name : deferred) {
+            TypeElement type = elements.getTypeElement(name);
+            if (type != null) {
+                classes.add(type);
+            }
+        }
+        deferred.clear();
+        for (Element element : roundEnv.getRootElements()) {
+            collectClasses(element, classes);
+        }
+
+        for (TypeElement type : classes) {
+            generate(type, roundEnv.processingOver());
+        }
+        return false;
+    }
+
+    private static void collectClasses(Element element, List<TypeElement> classes) {
+        if (!element.getKind().isClass() && !element.getKind().isInterface()) {
+            return;
+        }
+        classes.add((TypeElement) element);
+        for (Element member : element.getEnclosedElements()) {
+            collectClasses(member, classes);
+        }
+    }
+
+    /*
+     * Collects the members of type as ClassMetaInfo would from its class file.
+     */
+    private void generate(TypeElement type, boolean lastRound) {
+        String binaryName = elements.getBinaryName(type).toString();
+        ClassMetaInfo meta = new ClassMetaInfo();
+        try {
+            for (Element member : type.getEnclosedElements()) {
+                if (member.getKind() == ElementKind.METHOD) {
+                    ExecutableElement method = (ExecutableElement) member;
+                    Set<Modifier> modifiers = method.getModifiers();
+                    if (!modifiers.contains(Modifier.NATIVE)) {
+                        meta.visitMethod(0, method.getSimpleName().toString(), null, null, null);
+                        continue;
+                    }
+                    int access = Opcodes.ACC_NATIVE | (modifiers.contains(Modifier.STATIC) ? Opcodes.ACC_STATIC : 0);
+                    StringBuilder descriptor = new StringBuilder("(");
+                    for (VariableElement parameter : method.getParameters()) {
+                        appendDescriptor(parameter.asType(), descriptor);
+                    }
+                    descriptor.append(')');
+                    appendDescriptor(method.getReturnType(), descriptor);
+                    meta.visitMethod(access, method.getSimpleName().toString(), descriptor.toString(), null, null);
+                } else if (member.getKind() == ElementKind.FIELD) {
+                    Object value = constantValue(((VariableElement) member).getConstantValue());
+                    if (value != null) {
+                        meta.visitField(0, member.getSimpleName().toString(), null, null, value);
+                    }
+                }
+            }
+        } catch (UnresolvedTypeException e) {
+            if (lastRound) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "cannot generate header: type " + e.getMessage()
+                        + " cannot be resolved", type);
+            } else {
+                // The type may be generated by another processor in a later round
+                deferred.add(binaryName);
+            }
+            return;
+        }
+        if (meta.methods.isEmpty() && meta.constants.isEmpty()) {
+            return;
+        }
+
+        StringWriter buffer = new StringWriter();
+        PrintWriter err = new PrintWriter(buffer);
+        JNIGenerator.Status status = generator.withErrorHandle(err).generate(ClassName.ofFullName(binaryName), meta);
+        err.flush();
+        if (status == JNIGenerator.Status.FAILED) {
+            messager.printMessage(Diagnostic.Kind.ERROR, buffer.toString().trim(), type);
+        } else if (buffer.getBuffer().length() > 0) {
+            messager.printMessage(Diagnostic.Kind.WARNING, buffer.toString().trim(), type);
+        }
+    }
+
+    /*
+     * Appends the descriptor of the erasure of type, and records whether the class types are throwables
+     * in the class hierarchy of the generator.
+     */
+    private void appendDescriptor(TypeMirror type, StringBuilder descriptor) {
+        type = types.erasure(type);
+        switch (type.getKind()) {
+            case BOOLEAN:
+                descriptor.append('Z');
+                break;
+            case BYTE:
+                descriptor.append('B');
+                break;
+            case CHAR:
+                descriptor.append('C');
+                break;
+            case SHORT:
+                descriptor.append('S');
+                break;
+            case INT:
+                descriptor.append('I');
+                break;
+            case LONG:
+                descriptor.append('J');
+                break;
+            case FLOAT:
+                descriptor.append('F');
+                break;
+            case DOUBLE:
+                descriptor.append('D');
+                break;
+            case VOID:
+                descriptor.append('V');
+                break;
+            case ARRAY:
+                descriptor.append('[');
+                appendDescriptor(((ArrayType) type).getComponentType(), descriptor);
+                break;
+            case DECLARED:
+                String binaryName = elements.getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString();
+                descriptor.append('L').append(binaryName.replace('.', '/')).append(';');
+                if (throwableType != null) {
+                    hierarchy.putThrowable(ClassName.ofFullName(binaryName), types.isSubtype(type, throwableType));
+                }
+                break;
+            default:
+                throw new UnresolvedTypeException(type.toString());
+        }
+    }
+
+    /*
+     * Returns the constant as it is stored in a class file, where booleans, bytes, shorts and chars
+     * are ints, or null if it is not a numeric constant.
+     */
+    private static Object constantValue(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        if (value instanceof Byte || value instanceof Short) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof Character) {
+            return (int) (Character) value;
+        }
+        if (value instanceof Number) {
+            return value;
+        }
+        return null;
+    }
+
+    private static final class UnresolvedTypeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnresolvedTypeException(String type) {
+            super(type, null, false, false);
+        }
+    }
+}
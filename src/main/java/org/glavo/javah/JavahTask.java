@@ -1,37 +1,393 @@
 package org.glavo.javah;
 
+import org.glavo.javah.search.ArchivePool;
+import org.glavo.javah.search.ClassFileSource;
+import org.glavo.javah.search.ClassIndex;
 import org.glavo.javah.search.ClassPath;
 import org.glavo.javah.search.ModulePath;
 import org.glavo.javah.search.RuntimeSearchPath;
 import org.glavo.javah.search.SearchPath;
+import org.glavo.javah.search.SearchPathCache;
+import org.glavo.javah.util.ClassHierarchy;
+import org.glavo.javah.util.HeaderCache;
 import org.glavo.javah.util.JNIGenerator;
+import org.glavo.javah.util.Metrics;
+import org.glavo.javah.util.Utils;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
-public final class JavahTask {
+/**
+ * A set of classes to generate headers for, and the options to generate them with.
+ * <p>
+ * The archives of the class paths and module paths added to a task are opened when they are first
+ * needed, and stay open, up to a limit, until the task is closed.
+ */
+public final class JavahTask implements AutoCloseable {
     private final List<SearchPath> searchPaths = new LinkedList<>();
+    // Kept across runs, so that merged indexes stay built
+    private List<SearchPath> mergedSearchPaths;
+    private final List<ClassFileSource> classFileSources = new ArrayList<>();
+    private final ArchivePool archivePool = new ArchivePool();
     private Path outputDir;
     private Path outputFile;
     private PrintWriter errorHandle = new PrintWriter(System.err, true);
     private final List<ClassName> classes = new LinkedList<>();
+    private int parallelism = 1;
+    private int release = SearchPath.LATEST_RELEASE;
+    private ClassHierarchy classHierarchy;
+    private SearchPathCache searchPathCache;
+    private boolean incremental = false;
+    private boolean dependencyFiles = false;
+    private Path headerCacheDir;
+    private long headerCacheSize = HeaderCache.DEFAULT_MAX_SIZE;
+    private boolean scan = false;
+    private final List<Pattern> scanFilters = new ArrayList<>();
 
-    public void run() {
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    private final AtomicInteger unchangedCount = new AtomicInteger();
+
+    /**
+     * Generates the headers, and returns the metrics of the run.
+     */
+    public Metrics run() {
+        return run(null);
+    }
+
+    /*
+     * Generates the headers of the classes accepted by filter, or of all classes if it is null.
+     */
+    private Metrics run(Predicate<ClassName> filter) {
         if (outputDir == null && outputFile == null) {
             throw new AssertionError();
         }
-        JNIGenerator generator = new JNIGenerator(outputDir, searchPaths, errorHandle);
+        writtenCount.set(0);
+        unchangedCount.set(0);
+        long start = System.nanoTime();
+        Metrics metrics = new Metrics();
+        ArchivePool pool = searchPathCache != null ? searchPathCache.getArchivePool() : archivePool;
+        long openedCount = pool.getOpenedCount();
+
+        if (mergedSearchPaths == null) {
+            mergedSearchPaths = ClassIndex.merge(searchPaths);
+        }
+        JNIGenerator generator = new JNIGenerator(outputDir, mergedSearchPaths, errorHandle,
+                classHierarchy != null ? classHierarchy : new ClassHierarchy());
+        generator.setIncremental(incremental);
+        generator.setDependencyFiles(dependencyFiles);
+        generator.setClassFileSources(classFileSources);
+        HeaderCache headerCache = headerCacheDir == null ? null : new HeaderCache(headerCacheDir, headerCacheSize);
+        generator.setHeaderCache(headerCache);
+        List<Job> jobs = new ArrayList<>();
         for (ClassName cls : classes) {
+            if (filter == null || filter.test(cls)) {
+                jobs.add(new Job(cls, null));
+            }
+        }
+        if (scan) {
+            Metrics.Phase previous = metrics.enter(Metrics.Phase.SEARCH);
+            discover().forEach((cls, index) -> {
+                if (filter == null || filter.test(cls)) {
+                    jobs.add(new Job(cls, index));
+                }
+            });
+            metrics.exit(previous);
+        }
+
+        int threads = Math.min(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(), jobs.size());
+        if (outputFile != null) {
+            generateFile(generator, jobs, threads, metrics);
+        } else {
+            try {
+                forEachJob(generator, jobs, threads, null, metrics, (g, job, out) -> count(
+                        job.index == null ? g.generate(job.name) : g.generateScanned(job.name, job.classFile())));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        if (headerCache != null) {
+            Metrics.Phase previous = metrics.enter(Metrics.Phase.HEADER_CACHE);
             try {
-                generator.generate(cls);
-            } catch (Exception ex) {
-                ex.printStackTrace(errorHandle);
+                headerCache.trim();
+            } catch (IOException e) {
+                errorHandle.println("warning: cannot trim header cache " + headerCacheDir);
+            } finally {
+                metrics.exit(previous);
             }
         }
+
+        metrics.add(Metrics.Counter.ARCHIVES_OPENED, pool.getOpenedCount() - openedCount);
+        metrics.setTotalNanos(System.nanoTime() - start);
+        Metrics.Recorder recorder = Metrics.Recorder.flightRecorder();
+        if (recorder != null) {
+            recorder.runFinished(metrics);
+        }
+        return metrics;
+    }
+
+    /*
+     * Looks the class files changed in the given indexes up again, forgets what the class hierarchy knew
+     * about their classes, and regenerates the headers that may depend on them: the headers of the changed
+     * classes and of the classes nested in them, or all headers if the superclass of a changed class had been
+     * resolved, since it may have changed whether other classes are throwables, or if they go to a single file.
+     * The changed files are relative paths as returned by ClassIndex.names().
+     */
+    Metrics update(Map<ClassIndex, Set<String>> changedFiles) {
+        Set<String> allFiles = new HashSet<>();
+        changedFiles.forEach((index, files) -> {
+            index.update(files);
+            allFiles.addAll(files);
+        });
+        if (mergedSearchPaths != null) {
+            for (SearchPath searchPath : mergedSearchPaths) {
+                if (searchPath instanceof ClassIndex && !changedFiles.containsKey(searchPath)) {
+                    ((ClassIndex) searchPath).update(allFiles);
+                }
+            }
+        }
+
+        Set<String> changed = new HashSet<>();
+        boolean all = outputFile != null;
+        for (String file : allFiles) {
+            if (!file.endsWith(".class") || file.endsWith("module-info.class") || file.endsWith("package-info.class")) {
+                continue;
+            }
+            String name = file.substring(0, file.length() - ".class".length());
+            try {
+                ClassName className = ClassName.ofInternalName(name);
+                changed.add(className.className());
+                if (classHierarchy != null && classHierarchy.invalidate(className)) {
+                    all = true;
+                }
+            } catch (IllegalArgumentException ignored) {
+                // Not a class file of a valid class
+            }
+        }
+        return run(all ? null : cls -> {
+            String name = cls.className();
+            if (changed.contains(name)) {
+                return true;
+            }
+            for (int idx = name.indexOf('$', name.lastIndexOf('.') + 1); idx > 0; idx = name.indexOf('$', idx + 1)) {
+                if (changed.contains(name.substring(0, idx))) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /*
+     * Enumerates the classes of the class paths and module paths matching the scan filters,
+     * in name order, with the index of the first search path they are found in.
+     */
+    private Map<ClassName, ClassIndex> discover() {
+        Map<String, ClassIndex> found = new TreeMap<>();
+        for (SearchPath searchPath : searchPaths) {
+            ClassIndex index = ClassIndex.of(searchPath);
+            if (index == null) {
+                continue;
+            }
+            for (String file : index.names()) {
+                if (file.startsWith("META-INF/") || file.endsWith("module-info.class") || file.endsWith("package-info.class")) {
+                    continue;
+                }
+                String name = file.substring(0, file.length() - ".class".length()).replace('/', '.');
+                if (!found.containsKey(name) && matchesScanFilters(name)) {
+                    found.put(name, index);
+                }
+            }
+        }
+
+        Map<ClassName, ClassIndex> result = new LinkedHashMap<>();
+        found.forEach((name, index) -> {
+            try {
+                result.put(ClassName.ofFullName(name), index);
+            } catch (IllegalArgumentException ignored) {
+                // Not a class file of a valid class
+            }
+        });
+        return result;
+    }
+
+    private boolean matchesScanFilters(String name) {
+        if (scanFilters.isEmpty()) {
+            return true;
+        }
+        for (Pattern filter : scanFilters) {
+            if (filter.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char ch = glob.charAt(i);
+            if (ch != '*' && ch != '?') {
+                continue;
+            }
+            if (start < i) {
+                regex.append(Pattern.quote(glob.substring(start, i)));
+            }
+            if (ch == '?') {
+                regex.append("[^.]");
+            } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^.]*");
+            }
+            start = i + 1;
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private JNIGenerator.Status count(JNIGenerator.Status status) {
+        switch (status) {
+            case WRITTEN:
+                writtenCount.incrementAndGet();
+                break;
+            case UNCHANGED:
+                unchangedCount.incrementAndGet();
+                break;
+        }
+        return status;
+    }
+
+    /*
+     * Writes the declarations of all classes to the output file, in the order the classes were added or discovered.
+     * In incremental mode the file is rendered in memory first, and only replaced if its content changed.
+     */
+    private void generateFile(JNIGenerator generator, List<Job> jobs, int threads, Metrics metrics) {
+        try {
+            Path parent = outputFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            if (incremental) {
+                StringWriter buffer = new StringWriter();
+                writeFile(generator, jobs, threads, buffer, metrics);
+                byte[] content = buffer.toString().getBytes(StandardCharsets.UTF_8);
+                if (Utils.writeIfChanged(outputFile, content)) {
+                    writtenCount.incrementAndGet();
+                    metrics.add(Metrics.Counter.BYTES_WRITTEN, content.length);
+                } else {
+                    unchangedCount.incrementAndGet();
+                }
+            } else {
+                try (Writer out = Files.newBufferedWriter(outputFile)) {
+                    writeFile(generator, jobs, threads, out, metrics);
+                }
+                writtenCount.incrementAndGet();
+                metrics.add(Metrics.Counter.BYTES_WRITTEN, Files.size(outputFile));
+            }
+        } catch (IOException e) {
+            errorHandle.println("error: cannot write to " + outputFile);
+            e.printStackTrace(errorHandle);
+        }
+    }
+
+    private void writeFile(JNIGenerator generator, List<Job> jobs, int threads, Writer out, Metrics metrics)
+            throws IOException {
+        JNIGenerator.writeCombinedHeaderStart(out);
+        forEachJob(generator, jobs, threads, out, metrics,
+                (g, job, o) -> g.generateFragmentTo(job.name, job.index == null ? null : job.classFile(), o));
+        JNIGenerator.writeCombinedHeaderEnd(out);
+    }
+
+    /*
+     * With more than one thread, every class reports into its own buffers, and the buffers are drained
+     * in the order the classes were added or discovered, so neither the diagnostics nor the output
+     * depend on thread scheduling. The metrics of every class are added to metrics.
+     */
+    private void forEachJob(JNIGenerator generator, List<Job> jobs, int threads, Writer out, Metrics metrics,
+                            JobAction action) throws IOException {
+        if (threads <= 1) {
+            for (Job job : jobs) {
+                runJob(generator, job, out, errorHandle, metrics, action);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "gjavah-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<String[]>> results = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                results.add(executor.submit(() -> {
+                    StringWriter buffer = new StringWriter();
+                    PrintWriter err = new PrintWriter(buffer);
+                    StringWriter fragment = out == null ? null : new StringWriter();
+                    runJob(generator, job, fragment, err, metrics, action);
+                    err.flush();
+                    return new String[]{buffer.toString(), fragment == null ? null : fragment.toString()};
+                }));
+            }
+            for (Future<String[]> result : results) {
+                try {
+                    String[] r = result.get();
+                    errorHandle.print(r[0]);
+                    if (r[1] != null) {
+                        out.write(r[1]);
+                    }
+                } catch (ExecutionException ex) {
+                    ex.getCause().printStackTrace(errorHandle);
+                }
+                errorHandle.flush();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void runJob(JNIGenerator generator, Job job, Writer out, PrintWriter err, Metrics metrics,
+                               JobAction action) {
+        Metrics jobMetrics = new Metrics();
+        JNIGenerator g = generator.withErrorHandle(err);
+        g.setMetrics(jobMetrics);
+        Metrics.Recorder recorder = Metrics.Recorder.flightRecorder();
+        Object started = recorder == null ? null : recorder.classStarted();
+
+        JNIGenerator.Status status;
+        try {
+            status = action.run(g, job, out);
+        } catch (Exception ex) {
+            ex.printStackTrace(err);
+            status = JNIGenerator.Status.FAILED;
+        }
+
+        jobMetrics.count(status);
+        if (recorder != null) {
+            recorder.classGenerated(started, job.name, status, jobMetrics);
+        }
+        synchronized (metrics) {
+            metrics.add(jobMetrics);
+        }
     }
 
     public boolean hasClasses() {
@@ -53,23 +409,112 @@ public final class JavahTask {
         i.forEach(c -> classes.add(ClassName.ofFullName(c)));
     }
 
+    public boolean isScan() {
+        return scan;
+    }
+
+    /**
+     * Sets whether {@link #run()} also generates headers for the classes of all class paths and module paths
+     * that match the scan filters and declare native methods or constants.
+     */
+    public void setScan(boolean scan) {
+        this.scan = scan;
+    }
+
+    /**
+     * Restricts the scanned classes to those whose fully qualified name matches {@code glob}, or any other
+     * scan filter. In a glob, {@code **} matches any sequence of characters, {@code *} matches any sequence
+     * of characters other than {@code .}, and {@code ?} matches any character other than {@code .},
+     * so {@code com.acme.*} matches the classes of package {@code com.acme}
+     * and {@code com.acme.**} also matches those of its subpackages.
+     */
+    public void addScanFilter(String glob) {
+        Objects.requireNonNull(glob);
+        scanFilters.add(compileGlob(glob));
+    }
+
     public void addRuntimeSearchPath() {
+        mergedSearchPaths = null;
         searchPaths.add(RuntimeSearchPath.INSTANCE);
     }
 
     public void addSearchPath(SearchPath searchPath) {
         Objects.requireNonNull(searchPath);
+        mergedSearchPaths = null;
         searchPaths.add(searchPath);
     }
 
     public void addClassPath(Path classPath) {
         Objects.requireNonNull(classPath);
-        searchPaths.add(new ClassPath(classPath));
+        mergedSearchPaths = null;
+        searchPaths.add(searchPathCache != null
+                ? searchPathCache.classPath(classPath, release)
+                : new ClassPath(classPath, archivePool, release));
     }
 
     public void addModulePath(Path modulePath) {
         Objects.requireNonNull(modulePath);
-        searchPaths.add(new ModulePath(modulePath));
+        mergedSearchPaths = null;
+        searchPaths.add(searchPathCache != null
+                ? searchPathCache.modulePath(modulePath, release)
+                : new ModulePath(modulePath, archivePool, release));
+    }
+
+    /**
+     * Adds a source of class files supplied in memory. Sources are looked up before the search paths,
+     * but are not scanned.
+     */
+    public void addClassFileSource(ClassFileSource source) {
+        Objects.requireNonNull(source);
+        classFileSources.add(source);
+    }
+
+    public List<ClassFileSource> getClassFileSources() {
+        return Collections.unmodifiableList(classFileSources);
+    }
+
+    public List<SearchPath> getSearchPaths() {
+        return Collections.unmodifiableList(searchPaths);
+    }
+
+    public SearchPathCache getSearchPathCache() {
+        return searchPathCache;
+    }
+
+    /**
+     * Sets the cache from which class paths and module paths added afterwards are taken,
+     * or {@code null} to always open them anew.
+     */
+    public void setSearchPathCache(SearchPathCache searchPathCache) {
+        this.searchPathCache = searchPathCache;
+    }
+
+    public int getRelease() {
+        return release;
+    }
+
+    /**
+     * Sets the Java release whose versioned class files are looked up in the multi-release archives
+     * and directories of the class paths and module paths added afterwards. Versioned class files
+     * of higher releases are ignored. By default, the versioned class files of the highest release are used.
+     */
+    public void setRelease(int release) {
+        if (release <= 0) {
+            throw new IllegalArgumentException("Illegal release: " + release);
+        }
+        this.release = release;
+    }
+
+    public int getMaxOpenArchives() {
+        return archivePool.getMaxOpenArchives();
+    }
+
+    /**
+     * Sets the maximum number of archives of the class paths and module paths of this task that are open at once.
+     * It does not apply to search paths taken from a {@link SearchPathCache}.
+     */
+    public void setMaxOpenArchives(int maxOpenArchives) {
+        archivePool.setMaxOpenArchives(maxOpenArchives);
     }
 
     public Path getOutputDir() {
@@ -88,6 +533,92 @@ public final class JavahTask {
         this.outputFile = outputFile;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of classes processed concurrently by {@link #run()}.
+     * A value less than or equal to zero means the number of available processors.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Sets whether existing headers whose content would not change are left untouched.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isDependencyFiles() {
+        return dependencyFiles;
+    }
+
+    /**
+     * Sets whether a dependency file in make syntax is written next to each header, listing the class files
+     * and archives it was generated from. Dependency files are not written for an output file.
+     *
+     * @see JNIGenerator#setDependencyFiles(boolean)
+     */
+    public void setDependencyFiles(boolean dependencyFiles) {
+        this.dependencyFiles = dependencyFiles;
+    }
+
+    /**
+     * Returns the number of headers written by the last run.
+     */
+    public int getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Returns the number of headers left untouched by the last run because they were up to date.
+     */
+    public int getUnchangedCount() {
+        return unchangedCount.get();
+    }
+
+    public Path getHeaderCacheDir() {
+        return headerCacheDir;
+    }
+
+    /**
+     * Sets the directory of the persistent header cache, or {@code null} to disable it.
+     * The directory may be shared by concurrent builds.
+     */
+    public void setHeaderCacheDir(Path headerCacheDir) {
+        this.headerCacheDir = headerCacheDir;
+    }
+
+    public long getHeaderCacheSize() {
+        return headerCacheSize;
+    }
+
+    public void setHeaderCacheSize(long headerCacheSize) {
+        if (headerCacheSize <= 0) {
+            throw new IllegalArgumentException("Illegal cache size: " + headerCacheSize);
+        }
+        this.headerCacheSize = headerCacheSize;
+    }
+
+    public ClassHierarchy getClassHierarchy() {
+        return classHierarchy;
+    }
+
+    /**
+     * Sets the class hierarchy cache shared with other tasks.
+     * If it is {@code null}, each run of this task uses a fresh cache.
+     */
+    public void setClassHierarchy(ClassHierarchy classHierarchy) {
+        this.classHierarchy = classHierarchy;
+    }
+
     public PrintWriter getErrorHandle() {
         return errorHandle;
     }
@@ -99,4 +630,38 @@ public final class JavahTask {
             this.errorHandle = new PrintWriter(errorHandle);
         }
     }
+
+    /**
+     * Closes the archives opened by this task. Archives shared through a {@link SearchPathCache} are left open.
+     */
+    @Override
+    public void close() {
+        archivePool.close();
+    }
+
+    private interface JobAction {
+        JNIGenerator.Status run(JNIGenerator generator, Job job, Writer out) throws Exception;
+    }
+
+    /*
+     * A class added to the task, or a class discovered in index, whose class file is looked up
+     * right before it is read, since its archive may have been closed in the meantime.
+     */
+    private static final class Job {
+        final ClassName name;
+        final ClassIndex index;
+
+        Job(ClassName name, ClassIndex index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        Path classFile() throws NoSuchFileException {
+            Path classFile = index.search(name);
+            if (classFile == null) {
+                throw new NoSuchFileException(name.relativePath());
+            }
+            return classFile;
+        }
+    }
 }
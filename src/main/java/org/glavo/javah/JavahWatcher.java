@@ -0,0 +1,223 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.ClassIndex;
+import org.glavo.javah.search.ClassPath;
+import org.glavo.javah.search.SearchPath;
+import org.glavo.javah.util.ClassHierarchy;
+import org.glavo.javah.util.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the directories of the class paths of a task, and regenerates the headers of the classes
+ * whose class files changed.
+ * <p>
+ * The lookup indexes and the class hierarchy of the task are kept across updates, and only the changed
+ * class files are looked up again, so an update costs little more than generating the affected headers.
+ * A compiler writes many class files in a burst, so changes are collected until no file changed
+ * for {@link #DEBOUNCE_MILLIS} milliseconds.
+ */
+final class JavahWatcher implements Closeable {
+    static final long DEBOUNCE_MILLIS = 100;
+
+    private static final Pattern VERSIONED_PATTERN = Pattern.compile("META-INF/versions/\\d+/");
+
+    private final JavahTask task;
+    private final List<ClassPath> classPaths = new ArrayList<>();
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private int changedCount;
+
+    JavahWatcher(JavahTask task) throws IOException {
+        Objects.requireNonNull(task);
+        this.task = task;
+        for (SearchPath searchPath : task.getSearchPaths()) {
+            if (searchPath instanceof ClassPath && Files.isDirectory(((ClassPath) searchPath).getPath())) {
+                classPaths.add((ClassPath) searchPath);
+            }
+        }
+        if (task.getClassHierarchy() == null) {
+            task.setClassHierarchy(new ClassHierarchy());
+        }
+
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (ClassPath classPath : classPaths) {
+                register(classPath.getPath(), null);
+            }
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of class path directories watched.
+     */
+    int getDirectoryCount() {
+        return classPaths.size();
+    }
+
+    /**
+     * Returns the number of class files changed before the last update.
+     */
+    int getChangedCount() {
+        return changedCount;
+    }
+
+    /**
+     * Waits up to {@code timeout} for class files to change, then until they stop changing,
+     * and regenerates the affected headers.
+     *
+     * @return the metrics of the update, or {@code null} if no class file changed in time
+     */
+    Metrics update(long timeout, TimeUnit unit) throws InterruptedException {
+        Set<Path> changed = new HashSet<>();
+        boolean overflow = false;
+        WatchKey key = watchService.poll(timeout, unit);
+        while (key != null) {
+            overflow |= collect(key, changed);
+            key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (overflow) {
+            // Events were lost, so look every class file up again
+            for (ClassPath classPath : classPaths) {
+                changed.add(classPath.getPath());
+            }
+        }
+        if (changed.isEmpty()) {
+            return null;
+        }
+
+        Map<ClassIndex, Set<String>> changedFiles = new LinkedHashMap<>();
+        for (ClassPath classPath : classPaths) {
+            Path root = classPath.getPath();
+            Set<String> files = new HashSet<>();
+            for (Path file : changed) {
+                if (file.equals(root)) {
+                    files.addAll(classPath.index().names());
+                    addClassFiles(root, root, files);
+                } else if (file.startsWith(root)) {
+                    files.add(relativeName(root, file));
+                }
+            }
+            if (!files.isEmpty()) {
+                changedFiles.put(classPath.index(), files);
+            }
+        }
+        if (changedFiles.isEmpty()) {
+            return null;
+        }
+        changedCount = 0;
+        changedFiles.values().forEach(files -> changedCount += files.size());
+        return task.update(changedFiles);
+    }
+
+    /*
+     * Adds the changed class files of key to changed, registering created directories and adding
+     * the class files already in them. Returns whether events were lost.
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        Path dir = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path file = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    register(file, changed);
+                } catch (IOException e) {
+                    overflow = true;
+                }
+            } else if (file.getFileName().toString().endsWith(".class")) {
+                changed.add(file);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    /*
+     * Registers dir and its subdirectories, and adds their class files to changed unless it is null.
+     */
+    private void register(Path dir, Set<Path> changed) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                directories.put(d.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (changed != null && file.getFileName().toString().endsWith(".class")) {
+                    changed.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void addClassFiles(Path root, Path dir, Set<String> files) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.getFileName().toString().endsWith(".class")) {
+                        files.add(relativeName(root, file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ignored) {
+        }
+    }
+
+    /*
+     * Returns the path of file relative to root, or to the version root of a multi-release directory.
+     */
+    private static String relativeName(Path root, Path file) {
+        StringBuilder builder = new StringBuilder();
+        for (Path name : root.relativize(file)) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(name);
+        }
+        String name = builder.toString();
+        Matcher m = VERSIONED_PATTERN.matcher(name);
+        return m.lookingAt() ? name.substring(m.end()) : name;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
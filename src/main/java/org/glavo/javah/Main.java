@@ -2,62 +2,129 @@ package org.glavo.javah;
 
 import org.glavo.javah.resource.Resource;
 import org.glavo.javah.resource.Version;
+import org.glavo.javah.util.Metrics;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public final class Main {
 
     public static void main(String[] args) throws Throwable {
-        JavahTask task = new JavahTask();
+        Path workingDir = Paths.get(System.getProperty("user.dir"));
+        String classPathEnv = System.getenv("CLASSPATH");
 
+        if (args.length > 0 && (args[0].equals("--daemon") || args[0].equals("--connect"))) {
+            if (args.length < 2) {
+                System.err.println(Resource.getText("javah.error.missArg", args[0]));
+                System.exit(-1);
+            }
+            Path portFile = workingDir.resolve(args[1]);
+            if (args[0].equals("--daemon")) {
+                JavahDaemon daemon = new JavahDaemon();
+                // The only place the daemon is closed, whether serving ends normally, fails or is interrupted
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        daemon.close();
+                    } catch (IOException ignored) {
+                    }
+                }));
+                daemon.publish(portFile);
+                daemon.serve();
+                return;
+            }
+
+            args = Arrays.copyOfRange(args, 2, args.length);
+            Integer status = JavahClient.run(portFile, args, workingDir, classPathEnv, System.out, System.err);
+            if (status != null) {
+                if (status != 0) {
+                    System.exit(status);
+                }
+                return;
+            }
+        }
+
+        PrintWriter out = new PrintWriter(System.out, true);
+        PrintWriter err = new PrintWriter(System.err, true);
+        int status;
+        try (JavahTask task = new JavahTask()) {
+            status = run(args, workingDir, classPathEnv, out, err, task, null);
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs the command line {@code args} with {@code task}.
+     *
+     * @param workingDir   the directory against which relative paths are resolved
+     * @param classPathEnv the value of the {@code CLASSPATH} environment variable, or {@code null}
+     * @param beforeRun    called with the configured task right before it is run, may be {@code null}
+     * @return the exit status
+     */
+    static int run(String[] args, Path workingDir, String classPathEnv, PrintWriter out, PrintWriter err,
+                   JavahTask task, Consumer<JavahTask> beforeRun) {
         Iterator<String> it = Arrays.asList(args).iterator();
+        // Not reloaded globally, since the daemon runs requests of different clients at the same time
+        ResourceBundle text = Resource.text;
         if (!it.hasNext()) {
-            System.out.println(Resource.getText("javah.help"));
-            System.exit(-1);
+            out.println(Resource.getText(text, "javah.help"));
+            return -1;
         }
 
         boolean hasPath = false;
+        boolean hasParallelism = false;
+        boolean stats = false;
+        boolean watch = false;
+        List<String> names = new ArrayList<>();
+        // Added once all options are parsed, since the release applies to them wherever it is given
+        List<Consumer<JavahTask>> searchPaths = new ArrayList<>();
 
         while (it.hasNext()) {
             String c = it.next();
             switch (c) {
                 case "--locale":
                     if (!it.hasNext()) {
-                        System.err.println(Resource.getText("javah.error.missArg", c));
-                        System.exit(-1);
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
                     }
-                    Resource.reload(Locale.forLanguageTag(it.next()));
+                    text = Resource.bundle(Locale.forLanguageTag(it.next()));
                     break;
                 case "-version":
                 case "--version":
-                    System.out.println(Resource.getText("javah.version", Version.VERSION));
-                    return;
+                    out.println(Resource.getText(text, "javah.version", Version.VERSION));
+                    return 0;
                 case "-h":
                 case "-help":
                 case "--help":
                 case "-?":
-                    System.out.println(Resource.getText("javah.help"));
-                    return;
+                    out.println(Resource.getText(text, "javah.help"));
+                    return 0;
                 case "-p":
                 case "--module-path": {
                     if (!it.hasNext()) {
-                        System.err.println(Resource.getText("javah.error.missArg", c));
-                        System.exit(-1);
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
                     }
                     String modulePath = it.next();
                     hasPath = true;
                     for (String s : modulePath.split(File.pathSeparator)) {
-                        Path path = Paths.get(s);
+                        Path path = workingDir.resolve(s);
                         if (Files.isDirectory(path)) {
-                            task.addModulePath(path);
+                            searchPaths.add(t -> t.addModulePath(path));
                         }
                     }
                     break;
@@ -67,73 +134,218 @@ public final class Main {
                 case "--classpath":
                 case "--class-path": {
                     if (!it.hasNext()) {
-                        System.err.println(Resource.getText("javah.error.missArg", c));
-                        System.exit(-1);
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
                     }
                     hasPath = true;
                     Arrays.stream(it.next().split(File.pathSeparator))
                             .flatMap(p -> {
                                 if (p.endsWith("/*") || p.equals("*")) {
                                     try {
-                                        return Files.list(Paths.get(p.substring(0, p.length() - 1)))
+                                        return Files.list(workingDir.resolve(p.substring(0, p.length() - 1)))
                                                 .filter(Files::isRegularFile)
                                                 .filter(t -> t.toAbsolutePath().getFileName().toString().toLowerCase().endsWith(".jar"));
                                     } catch (Exception e) {
                                         return Stream.empty();
                                     }
                                 }
-                                return Stream.of(Paths.get(p));
+                                return Stream.of(workingDir.resolve(p));
                             })
                             .filter(Files::exists)
                             .map(Path::toAbsolutePath)
-                            .forEachOrdered(task::addClassPath);
+                            .forEachOrdered(path -> searchPaths.add(t -> t.addClassPath(path)));
                     break;
                 }
                 case "-d": {
                     if (!it.hasNext()) {
-                        System.err.println(Resource.getText("javah.error.missArg", c));
-                        System.exit(-1);
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
                     }
                     String outputDir = it.next();
                     task.setOutputFile(null);
-                    task.setOutputDir(Paths.get(outputDir));
+                    task.setOutputDir(workingDir.resolve(outputDir));
+                    break;
+                }
+                case "-j":
+                case "--parallel": {
+                    if (!it.hasNext()) {
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
+                    }
+                    String n = it.next();
+                    try {
+                        task.setParallelism(Integer.parseInt(n));
+                        hasParallelism = true;
+                    } catch (NumberFormatException e) {
+                        err.println(Resource.getText(text, "javah.error.invalidArg", c, n));
+                        return -1;
+                    }
+                    break;
+                }
+                case "--header-cache": {
+                    if (!it.hasNext()) {
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
+                    }
+                    task.setHeaderCacheDir(workingDir.resolve(it.next()));
+                    break;
+                }
+                case "--header-cache-size": {
+                    if (!it.hasNext()) {
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
+                    }
+                    String n = it.next();
+                    try {
+                        task.setHeaderCacheSize(Long.parseLong(n));
+                    } catch (IllegalArgumentException e) {
+                        err.println(Resource.getText(text, "javah.error.invalidArg", c, n));
+                        return -1;
+                    }
+                    break;
+                }
+                case "--max-open-archives": {
+                    if (!it.hasNext()) {
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
+                    }
+                    if (task.getSearchPathCache() != null) {
+                        // The archives of the daemon are shared by all requests
+                        err.println(Resource.getText(text, "javah.error.daemonUnsupported", c));
+                        return -1;
+                    }
+                    String n = it.next();
+                    try {
+                        task.setMaxOpenArchives(Integer.parseInt(n));
+                    } catch (IllegalArgumentException e) {
+                        err.println(Resource.getText(text, "javah.error.invalidArg", c, n));
+                        return -1;
+                    }
+                    break;
+                }
+                case "--release": {
+                    if (!it.hasNext()) {
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
+                    }
+                    String n = it.next();
+                    try {
+                        task.setRelease(Integer.parseInt(n));
+                    } catch (IllegalArgumentException e) {
+                        err.println(Resource.getText(text, "javah.error.invalidArg", c, n));
+                        return -1;
+                    }
                     break;
                 }
+                case "--incremental":
+                    task.setIncremental(true);
+                    break;
+                case "--dependency-files":
+                    task.setDependencyFiles(true);
+                    break;
+                case "--scan":
+                    task.setScan(true);
+                    break;
+                case "--stats":
+                    stats = true;
+                    break;
+                case "--watch":
+                    watch = true;
+                    task.setIncremental(true);
+                    break;
                 case "-o": {
                     if (!it.hasNext()) {
-                        System.err.println(Resource.getText("javah.error.missArg", c));
-                        System.exit(-1);
+                        err.println(Resource.getText(text, "javah.error.missArg", c));
+                        return -1;
                     }
-                    throw new UnsupportedOperationException("Unsupported option \"-o\"");
-                    /*
                     String outputFile = it.next();
                     task.setOutputDir(null);
-                    task.setOutputFile(Paths.get(outputFile));
+                    task.setOutputFile(workingDir.resolve(outputFile));
                     break;
-                    */
                 }
                 default:
                     if (c.startsWith("-")) {
-                        System.err.println(Resource.getText("javah.error.unknownOption", c));
+                        err.println(Resource.getText(text, "javah.error.unknownOption", c));
                     } else {
-                        task.addClass(ClassName.ofFullName(c));
+                        names.add(c);
                         break;
                     }
             }
         }
-        if (!task.hasClasses()) {
-            System.err.println(Resource.getText("javah.error.noClasses"));
-            System.exit(-1);
+        for (String name : names) {
+            if (task.isScan()) {
+                task.addScanFilter(name);
+            } else {
+                task.addClass(ClassName.ofFullName(name));
+            }
+        }
+        if (task.isScan() && !hasParallelism) {
+            task.setParallelism(0);
         }
+        if (!task.hasClasses() && !task.isScan()) {
+            err.println(Resource.getText(text, "javah.error.noClasses"));
+            return -1;
+        }
+        if (watch && task.getSearchPathCache() != null) {
+            err.println(Resource.getText(text, "javah.error.watchUnsupported"));
+            return -1;
+        }
+        if (task.isDependencyFiles() && task.getOutputFile() != null) {
+            err.println(Resource.getText(text, "javah.error.dependencyFilesWithOutputFile"));
+            return -1;
+        }
+        searchPaths.forEach(a -> a.accept(task));
         if (!hasPath) {
-            String path = System.getenv("CLASSPATH");
-            task.addClassPath(Paths.get(path == null ? System.getProperty("user.dir") : path).toAbsolutePath());
+            task.addClassPath(classPathEnv == null ? workingDir : workingDir.resolve(classPathEnv));
         }
         task.addRuntimeSearchPath();
         if (task.getOutputFile() == null && task.getOutputDir() == null) {
-            task.setOutputDir(Paths.get(System.getProperty("user.dir")));
+            task.setOutputDir(workingDir);
+        }
+        task.setErrorHandle(err);
+        if (beforeRun != null) {
+            beforeRun.accept(task);
+        }
+        Metrics metrics = task.run();
+        if (task.isIncremental()) {
+            out.println(Resource.getText(text, "javah.incremental.summary", task.getWrittenCount(), task.getUnchangedCount()));
+        }
+        if (stats) {
+            metrics.print(out);
+        }
+        if (watch) {
+            return watch(task, out, err, stats, text);
+        }
+        return 0;
+    }
+
+    /*
+     * Regenerates the headers of changed classes until interrupted. The task is incremental, so headers
+     * whose content did not change are left untouched and native code depending on them is not rebuilt.
+     */
+    private static int watch(JavahTask task, PrintWriter out, PrintWriter err, boolean stats, ResourceBundle text) {
+        try (JavahWatcher watcher = new JavahWatcher(task)) {
+            if (watcher.getDirectoryCount() == 0) {
+                err.println(Resource.getText(text, "javah.error.watchNoDirectories"));
+                return -1;
+            }
+            out.println(Resource.getText(text, "javah.watch.start", watcher.getDirectoryCount()));
+            while (true) {
+                Metrics metrics = watcher.update(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                if (metrics == null) {
+                    continue;
+                }
+                out.println(Resource.getText(text, "javah.watch.update", watcher.getChangedCount(),
+                        task.getWrittenCount(), task.getUnchangedCount(), metrics.getTotalNanos() / 1e6));
+                if (stats) {
+                    metrics.print(out);
+                }
+            }
+        } catch (InterruptedException e) {
+            return 0;
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            return 1;
         }
-        task.setErrorHandle(new PrintWriter(System.err, true));
-        task.run();
     }
 }
@@ -11,7 +11,14 @@ public final class Resource {
     }
 
     public static void reload(Locale locale) {
-        text = ResourceBundle.getBundle("org.glavo.javah.resource.Text", locale);
+        text = bundle(locale);
+    }
+
+    /**
+     * Returns the messages for {@code locale}, without changing the messages of the process.
+     */
+    public static ResourceBundle bundle(Locale locale) {
+        return ResourceBundle.getBundle("org.glavo.javah.resource.Text", locale);
     }
 
     public static String getText(String key) {
@@ -22,4 +29,12 @@ public final class Resource {
         return String.format(text.getString(key), args);
     }
 
+    public static String getText(ResourceBundle text, String key) {
+        return text.getString(key);
+    }
+
+    public static String getText(ResourceBundle text, String key, Object... args) {
+        return String.format(text.getString(key), args);
+    }
+
 }
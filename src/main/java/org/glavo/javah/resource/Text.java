@@ -8,8 +8,10 @@ public final class Text extends ListResourceBundle {
         return new Object[][]{
                 {"javah.help", "Usage:\n" +
                         "  gjavah [options] <classes>\n" +
+                        "  gjavah --daemon <port file>\n" +
+                        "  gjavah --connect <port file> [options] <classes>\n" +
                         "where [options] include:\n" +
-                        //"  -o <file>                    Output file (only one of -d or -o may be used)\n" +
+                        "  -o <file>                    Output file (only one of -d or -o may be used)\n" +
                         "  -d <dir>                     Output directory\n" +
                         "  -v  -verbose                 Enable verbose output\n" +
                         "  -h  --help  -?               Print this message\n" +
@@ -18,15 +20,48 @@ public final class Text extends ListResourceBundle {
                         "  --class-path <path>          Path from which to load classes\n" +
                         "  -classpath <path>            Path from which to load classes\n" +
                         "  -cp <path>                   Path from which to load classes\n" +
+                        "  --release <release>          Look up the versioned class files of multi-release\n" +
+                        "                               archives for the given Java release\n" +
+                        "  -j  --parallel <n>           Number of classes to process concurrently\n" +
+                        "                               (0 for the number of available processors)\n" +
+                        "  --max-open-archives <n>      Maximum number of archives kept open at once\n" +
+                        "  --incremental                Only rewrite headers whose content changed\n" +
+                        "  --dependency-files           Write a make dependency file (.d) next to each header,\n" +
+                        "                               listing the class files and archives it was read from\n" +
+                        "  --header-cache <dir>         Directory of the persistent header cache\n" +
+                        "  --header-cache-size <bytes>  Maximum size of the persistent header cache\n" +
+                        "  --scan                       Generate headers for every class with native methods\n" +
+                        "                               or constants in the class path and module path\n" +
+                        "  --stats                      Print the time spent in each phase and other statistics\n" +
+                        "  --watch                      Keep running, and regenerate the headers of classes\n" +
+                        "                               whose class files change in class path directories\n" +
+                        "                               (implies --incremental)\n" +
                         "\n" +
                         "Each class must be specified by its fully qualified names, optionally\n" +
                         "prefixed by a module name followed by /. Examples:\n" +
                         "    java.lang.Object\n" +
-                        "    java.base/java.io.File"},
+                        "    java.base/java.io.File\n" +
+                        "\n" +
+                        "With --scan, each argument is instead a glob that restricts the scanned\n" +
+                        "classes, where ** matches any characters and * matches any characters\n" +
+                        "except '.'. Example:\n" +
+                        "    com.acme.**\n" +
+                        "\n" +
+                        "--daemon starts a server that keeps archives and caches warm between runs,\n" +
+                        "and writes its address to the port file. --connect runs the command in that\n" +
+                        "server, or locally if it cannot be reached."},
                 {"javah.version", "gjavah version \"%s\""},
+                {"javah.incremental.summary", "%d header(s) written, %d unchanged"},
+                {"javah.watch.start", "Watching %d class path director(ies) for changes"},
+                {"javah.watch.update", "%d class file(s) changed: %d header(s) written, %d unchanged in %.1f ms"},
                 {"javah.error.missArg", "Error: value missing for option \"%s\""},
+                {"javah.error.invalidArg", "Error: invalid value for option \"%s\": %s"},
                 {"javah.error.unknownOption", "Error: unknown option: %s"},
-                {"javah.error.noClasses", "Error: no classes specified"}
+                {"javah.error.noClasses", "Error: no classes specified"},
+                {"javah.error.watchUnsupported", "Error: --watch is not supported by the daemon"},
+                {"javah.error.watchNoDirectories", "Error: --watch requires a class path directory"},
+                {"javah.error.dependencyFilesWithOutputFile", "Error: --dependency-files cannot be used with -o"},
+                {"javah.error.daemonUnsupported", "Error: %s is not supported by the daemon"}
         };
     }
 }
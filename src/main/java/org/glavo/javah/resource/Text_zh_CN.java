@@ -8,8 +8,10 @@ public final class Text_zh_CN extends ListResourceBundle {
         return new Object[][]{
                 {"javah.help", "用法:\n" +
                         "  gjavah [options] <classes>\n" +
+                        "  gjavah --daemon <端口文件>\n" +
+                        "  gjavah --connect <端口文件> [options] <classes>\n" +
                         "其中, [options] 包括:\n" +
-                        //"  -o <file>                    输出文件 (只能使用 -d 或 -o 之一)\n" +
+                        "  -o <file>                    输出文件 (只能使用 -d 或 -o 之一)\n" +
                         "  -d <dir>                     输出目录\n" +
                         "  -v  -verbose                 启用详细输出\n" +
                         "  -h  --help  -?               输出此消息\n" +
@@ -18,15 +20,44 @@ public final class Text_zh_CN extends ListResourceBundle {
                         "  --class-path <路径>          从中加载类的路径\n" +
                         "  -classpath <path>            从中加载类的路径\n" +
                         "  -cp <path>                   从中加载类的路径\n" +
+                        "  --release <release>          按指定的 Java 版本查找多版本归档中的类文件\n" +
+                        "  -j  --parallel <n>           同时处理的类的数量\n" +
+                        "                               (0 表示可用处理器的数量)\n" +
+                        "  --max-open-archives <n>      同时保持打开的归档文件的最大数量\n" +
+                        "  --incremental                仅重写内容发生变化的头文件\n" +
+                        "  --dependency-files           在每个头文件旁写入 make 依赖文件 (.d),\n" +
+                        "                               列出读取过的类文件和归档文件\n" +
+                        "  --header-cache <目录>        持久化头文件缓存的目录\n" +
+                        "  --header-cache-size <字节>   持久化头文件缓存的最大大小\n" +
+                        "  --scan                       为类路径和模块路径中所有包含本地方法\n" +
+                        "                               或常量的类生成头文件\n" +
+                        "  --stats                      输出各阶段的耗时及其他统计信息\n" +
+                        "  --watch                      持续运行, 当类路径目录中的类文件发生变化时\n" +
+                        "                               重新生成对应的头文件 (隐含 --incremental)\n" +
                         "\n" +
                         "每个类必须由其全限定名称指定,\n" +
                         "可以选择性地使用模块名后跟 / 作为前缀。示例:\n" +
                         "    java.lang.Object\n" +
-                        "    java.base/java.io.File"},
+                        "    java.base/java.io.File\n" +
+                        "\n" +
+                        "使用 --scan 时, 每个参数则是限定扫描范围的通配符,\n" +
+                        "其中 ** 匹配任意字符, * 匹配除 '.' 以外的任意字符。示例:\n" +
+                        "    com.acme.**\n" +
+                        "\n" +
+                        "--daemon 启动一个在多次运行之间保持归档文件和缓存的服务器, 并将其地址写入端口文件。\n" +
+                        "--connect 在该服务器中运行命令, 如果无法连接则在本地运行。"},
                 {"javah.version", "gjavah 版本 \"%s\""},
+                {"javah.incremental.summary", "已写入 %d 个头文件, %d 个未变化"},
+                {"javah.watch.start", "正在监视 %d 个类路径目录的变化"},
+                {"javah.watch.update", "%d 个类文件发生变化: 已写入 %d 个头文件, %d 个未变化, 耗时 %.1f ms"},
                 {"javah.error.missArg", "错误：选项 \"%s\" 缺少值"},
+                {"javah.error.invalidArg", "错误: 选项 \"%s\" 的值无效: %s"},
                 {"javah.error.unknownOption", "错误: 未知选项: %s"},
-                {"javah.error.noClasses", "错误: 未指定类"}
+                {"javah.error.noClasses", "错误: 未指定类"},
+                {"javah.error.watchUnsupported", "错误: 守护进程不支持 --watch"},
+                {"javah.error.watchNoDirectories", "错误: --watch 需要一个类路径目录"},
+                {"javah.error.dependencyFilesWithOutputFile", "错误: --dependency-files 不能与 -o 同时使用"},
+                {"javah.error.daemonUnsupported", "错误: 守护进程不支持 %s"}
         };
     }
 }
@@ -0,0 +1,209 @@
+package org.glavo.javah.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The file systems of the jar, zip and jmod archives of class paths and module paths.
+ * <p>
+ * An archive is only opened when it is first accessed, and at most {@link #getMaxOpenArchives()} archives
+ * are kept open: opening another one closes the least recently used, which is opened again if it is
+ * accessed later. A path inside an archive that another thread closed in the meantime throws
+ * {@link java.nio.file.ClosedFileSystemException} when read, so readers look the path up again through the pool,
+ * which reopens the archive, up to {@link #MAX_REOPEN_ATTEMPTS} times.
+ */
+public final class ArchivePool implements Closeable {
+    public static final int DEFAULT_MAX_OPEN_ARCHIVES = 64;
+
+    /**
+     * The number of times a read of a class file is attempted when its archive keeps being closed
+     * by other threads before it is read.
+     */
+    public static final int MAX_REOPEN_ATTEMPTS = 8;
+
+    /**
+     * The pool of the search paths created without a pool, which is never closed.
+     */
+    static final ArchivePool SHARED = new ArchivePool();
+
+    private final Map<Path, FileSystem> open = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxOpenArchives;
+    private boolean closed = false;
+    private long openedCount = 0;
+
+    public ArchivePool() {
+        this(DEFAULT_MAX_OPEN_ARCHIVES);
+    }
+
+    public ArchivePool(int maxOpenArchives) {
+        setMaxOpenArchives(maxOpenArchives);
+    }
+
+    public static boolean isArchive(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".jar") || name.endsWith(".zip") || name.endsWith(".jmod");
+    }
+
+    /**
+     * Returns the archive file that contains {@code path}, or {@code null} if {@code path} is not inside a jar,
+     * zip or jmod archive.
+     */
+    public static Path archiveOf(Path path) {
+        Objects.requireNonNull(path);
+        if (!"jar".equals(path.getFileSystem().provider().getScheme())) {
+            return null;
+        }
+        // jar:<URI of the archive>!/<entry>
+        String uri = path.toUri().toString();
+        int separator = uri.indexOf("!/");
+        if (!uri.startsWith("jar:") || separator < 0) {
+            return null;
+        }
+        try {
+            return Paths.get(URI.create(uri.substring("jar:".length(), separator)));
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the root of the classes in {@code archive}, opening it if needed.
+     */
+    public Path root(Path archive) throws IOException {
+        Objects.requireNonNull(archive);
+        FileSystem fs;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Archive pool is closed");
+            }
+            fs = open.get(archive);
+        }
+        if (fs == null) {
+            // Read the central directory without holding the lock
+            FileSystem newFs = FileSystems.newFileSystem(archive, (ClassLoader) null);
+            List<FileSystem> evicted = new ArrayList<>();
+            synchronized (this) {
+                if (closed) {
+                    evicted.add(newFs);
+                } else {
+                    fs = open.putIfAbsent(archive, newFs);
+                    if (fs == null) {
+                        fs = newFs;
+                        openedCount++;
+                        evict(maxOpenArchives, evicted);
+                    } else {
+                        evicted.add(newFs);
+                    }
+                }
+            }
+            closeAll(evicted);
+            if (fs == null) {
+                throw new IOException("Archive pool is closed");
+            }
+        }
+        return archive.getFileName().toString().toLowerCase().endsWith(".jmod")
+                ? fs.getPath("/", "classes")
+                : fs.getPath("/");
+    }
+
+    /**
+     * Closes the archives that are {@code path} or under the directory {@code path},
+     * so that they are read anew when accessed again.
+     */
+    public void invalidate(Path path) {
+        Objects.requireNonNull(path);
+        List<FileSystem> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<Path, FileSystem>> it = open.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, FileSystem> e = it.next();
+                if (e.getKey().startsWith(path)) {
+                    evicted.add(e.getValue());
+                    it.remove();
+                }
+            }
+        }
+        closeAll(evicted);
+    }
+
+    public synchronized int getMaxOpenArchives() {
+        return maxOpenArchives;
+    }
+
+    public void setMaxOpenArchives(int maxOpenArchives) {
+        if (maxOpenArchives <= 0) {
+            throw new IllegalArgumentException("Illegal maximum number of open archives: " + maxOpenArchives);
+        }
+        List<FileSystem> evicted = new ArrayList<>();
+        synchronized (this) {
+            this.maxOpenArchives = maxOpenArchives;
+            evict(maxOpenArchives, evicted);
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Returns the number of times an archive was opened through this pool, including reopened archives.
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    /**
+     * Returns the number of archives currently open.
+     */
+    public synchronized int getOpenCount() {
+        return open.size();
+    }
+
+    /**
+     * Closes all open archives, which are opened again when accessed.
+     */
+    public void clear() {
+        List<FileSystem> evicted = new ArrayList<>();
+        synchronized (this) {
+            evict(0, evicted);
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Closes all open archives. Archives can no longer be opened through this pool afterwards.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        clear();
+    }
+
+    private void evict(int limit, List<FileSystem> evicted) {
+        Iterator<FileSystem> it = open.values().iterator();
+        while (open.size() > limit && it.hasNext()) {
+            evicted.add(it.next());
+            it.remove();
+        }
+    }
+
+    private static void closeAll(List<FileSystem> fileSystems) {
+        for (FileSystem fs : fileSystems) {
+            try {
+                fs.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.glavo.javah.search;
+
+import org.glavo.javah.ClassName;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A place to look up the content of class files that need not exist in a file system, such as classes
+ * compiled in memory by a compiler or build tool. Implementations must be safe for concurrent use,
+ * since headers of different classes may be generated in parallel.
+ *
+ * @see MemoryClassFileSource
+ * @see FileManagerClassFileSource
+ */
+public interface ClassFileSource {
+    /**
+     * Returns the content of the class file of {@code name}, from the position to the limit of the buffer,
+     * or {@code null} if it is not found. The caller does not modify the buffer.
+     */
+    ByteBuffer read(ClassName name) throws IOException;
+}
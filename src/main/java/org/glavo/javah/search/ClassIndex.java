@@ -0,0 +1,445 @@
+package org.glavo.javah.search;
+
+import org.glavo.javah.ClassName;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * An index of the class files under an ordered list of roots.
+ * <p>
+ * The class files of a package are listed once, when a class of the package is first looked up, into a map
+ * from relative class file path to the file found in the first root that contains it, so later lookups
+ * cost a single hash probe while keeping the precedence of the roots (including multi-release version roots).
+ * Directory roots are only enumerated as a whole when all their classes are needed, by {@link #names()} or
+ * {@link #fingerprint()}, so looking a few classes up in a large directory, such as the working directory
+ * used when no class path is given, does not walk its whole tree. The index does not observe files created
+ * after they were listed, unless they are passed to {@link #update(Collection)}.
+ * <p>
+ * An index of archives only keeps the names of their class files, and reopens an archive through
+ * its {@link ArchivePool} when a class in it is looked up, so the archive may be closed in the meantime.
+ */
+public final class ClassIndex implements SearchPath {
+    private final List<Path> roots;
+    private final List<ClassIndex> parts;
+    private final List<Archive> archives;
+    // The class file, or the archive entry it is in
+    private volatile Map<String, Object> classes;
+    private long fingerprint;
+    // The class files of the directory roots by package, listed on first use until classes are enumerated
+    private final Map<String, Map<String, Path>> packages = new ConcurrentHashMap<>();
+    // The stamps of the packages of the directory roots listed or enumerated so far
+    private final Map<String, Long> packageStamps = new ConcurrentHashMap<>();
+
+    public ClassIndex(List<Path> roots) {
+        this(roots, Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Creates the index of archives, in order of precedence, which are opened through {@code pool}
+     * one after the other when the index is built. The versioned class files of multi-release archives
+     * above {@code release} are not indexed.
+     */
+    ClassIndex(ArchivePool pool, List<Path> archives, int release) {
+        this(Collections.emptyList(), Collections.emptyList(),
+                archives.stream().map(a -> new Archive(pool, a, release)).collect(Collectors.toList()));
+    }
+
+    /**
+     * Creates an index of the classes of {@code parts}, in order of precedence.
+     */
+    static ClassIndex ofParts(List<ClassIndex> parts) {
+        return new ClassIndex(Collections.emptyList(), parts, Collections.emptyList());
+    }
+
+    private ClassIndex(List<Path> roots, List<ClassIndex> parts, List<Archive> archives) {
+        Objects.requireNonNull(roots);
+        this.roots = roots;
+        this.parts = parts;
+        this.archives = archives;
+    }
+
+    /**
+     * Replaces each run of consecutive index-backed search paths with a single index,
+     * so that a lookup through the result probes one map instead of every root of every path
+     * once the classes of the index are enumerated, and otherwise the package maps of its parts in order.
+     * Other search paths, including module paths which look classes up by module, are kept as they are,
+     * in their original order.
+     */
+    public static List<SearchPath> merge(Iterable<SearchPath> searchPaths) {
+        Objects.requireNonNull(searchPaths);
+        List<SearchPath> result = new ArrayList<>();
+        List<ClassIndex> run = new ArrayList<>();
+        for (SearchPath searchPath : searchPaths) {
+            ClassIndex index = searchPath instanceof ModulePath ? null : of(searchPath);
+            if (index != null) {
+                run.add(index);
+                continue;
+            }
+            flush(run, result);
+            if (searchPath != null) {
+                result.add(searchPath);
+            }
+        }
+        flush(run, result);
+        return result;
+    }
+
+    /**
+     * Returns the index backing {@code searchPath}, or {@code null} if it is not backed by an index.
+     */
+    public static ClassIndex of(SearchPath searchPath) {
+        if (searchPath instanceof ClassIndex) {
+            return (ClassIndex) searchPath;
+        }
+        if (searchPath instanceof ClassPath) {
+            return ((ClassPath) searchPath).index();
+        }
+        if (searchPath instanceof ModulePath) {
+            return ((ModulePath) searchPath).index();
+        }
+        return null;
+    }
+
+    private static void flush(List<ClassIndex> run, List<SearchPath> result) {
+        if (run.size() == 1) {
+            result.add(run.get(0));
+        } else if (run.size() > 1) {
+            result.add(ofParts(new ArrayList<>(run)));
+        }
+        run.clear();
+    }
+
+    @Override
+    public Path search(ClassName name) {
+        Objects.requireNonNull(name);
+        Object entry = entry(name.relativePath());
+        if (entry instanceof ArchiveEntry) {
+            return ((ArchiveEntry) entry).resolve();
+        }
+        return (Path) entry;
+    }
+
+    /*
+     * Archives are always indexed as a whole, since their central directory is read at once anyway.
+     */
+    private Object entry(String name) {
+        if (classes != null || !archives.isEmpty()) {
+            return classes().get(name);
+        }
+        for (ClassIndex part : parts) {
+            Object entry = part.entry(name);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        if (roots.isEmpty()) {
+            return null;
+        }
+        return packages.computeIfAbsent(packageOf(name), this::listPackage).get(name);
+    }
+
+    private static String packageOf(String name) {
+        int idx = name.lastIndexOf('/');
+        return idx < 0 ? "" : name.substring(0, idx);
+    }
+
+    /*
+     * Lists the class files directly in the directory of the package under each root, without descending further.
+     */
+    private Map<String, Path> listPackage(String packageName) {
+        Map<String, Path> result = new HashMap<>();
+        long stamp = 0;
+        for (Path root : roots) {
+            if (root == null) {
+                continue;
+            }
+            Path dir = packageName.isEmpty() ? root : root.resolve(packageName);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.class")) {
+                for (Path file : files) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attrs.isRegularFile()) {
+                        String name = file.getFileName().toString();
+                        name = packageName.isEmpty() ? name : packageName + "/" + name;
+                        result.putIfAbsent(name, file);
+                        stamp += stampOf(name, attrs);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException ignored) {
+                // Not a package of this root
+            }
+        }
+        packageStamps.put(packageName, stamp);
+        return result;
+    }
+
+    private static long stampOf(String name, BasicFileAttributes attrs) {
+        return (name.hashCode() * 31L + attrs.size()) * 31L + attrs.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Returns the stamps of the packages whose directories were listed or enumerated so far, by package,
+     * using {@code /} as the separator. The stamp of a package is a hash of the names, sizes and
+     * modification times of its class files under the directory roots. Packages in archives have no stamp.
+     */
+    public Map<String, Long> packageStamps() {
+        return Collections.unmodifiableMap(packageStamps);
+    }
+
+    /**
+     * Returns the current stamp of {@code packageName}, listing its directories if they were not listed yet.
+     * The listing is reused by later lookups.
+     *
+     * @see #packageStamps()
+     */
+    public long packageStamp(String packageName) {
+        Objects.requireNonNull(packageName);
+        Long stamp = packageStamps.get(packageName);
+        if (stamp == null) {
+            packages.computeIfAbsent(packageName, this::listPackage);
+            stamp = packageStamps.get(packageName);
+        }
+        return stamp == null ? 0 : stamp;
+    }
+
+    /**
+     * Returns a hash of the names, sizes and modification times of the indexed class files,
+     * which changes when any class file under the roots is added, removed or modified.
+     */
+    public long fingerprint() {
+        classes();
+        return fingerprint;
+    }
+
+    /**
+     * Returns the paths of the indexed class files relative to their root, using {@code /} as the separator.
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(classes().keySet());
+    }
+
+    /**
+     * Looks the class files {@code names}, paths as returned by {@link #names()}, up again after they were
+     * created, modified or deleted, instead of enumerating all roots anew. The parts of a merged index
+     * must be updated before it. Class files in archives are not updated.
+     */
+    public synchronized void update(Collection<String> names) {
+        Objects.requireNonNull(names);
+        for (String name : names) {
+            packages.remove(packageOf(name));
+            packageStamps.remove(packageOf(name));
+        }
+        Map<String, Object> c = classes;
+        if (c == null) {
+            // Built with the current files on the next lookup
+            return;
+        }
+        long hash = fingerprint;
+        for (String name : names) {
+            Object entry = null;
+            for (ClassIndex part : parts) {
+                entry = part.classes().get(name);
+                if (entry != null) {
+                    break;
+                }
+            }
+            for (int i = 0; entry == null && i < roots.size(); i++) {
+                Path root = roots.get(i);
+                if (root != null && Files.isRegularFile(root.resolve(name))) {
+                    entry = root.resolve(name);
+                }
+            }
+            if (entry == null && c.get(name) instanceof ArchiveEntry) {
+                continue;
+            }
+            if (entry == null) {
+                c.remove(name);
+            } else {
+                c.put(name, entry);
+            }
+            hash = hash * 31 + name.hashCode() * 31L + (entry instanceof Path ? lastModified((Path) entry) : 0);
+        }
+        fingerprint = hash;
+        classes = c;
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Map<String, Object> classes() {
+        Map<String, Object> c = classes;
+        if (c == null) {
+            synchronized (this) {
+                c = classes;
+                if (c == null) {
+                    classes = c = build();
+                }
+            }
+        }
+        return c;
+    }
+
+    /*
+     * The map is concurrent, since it is modified in place by update.
+     */
+    private Map<String, Object> build() {
+        Map<String, Object> map = new ConcurrentHashMap<>();
+        long[] hash = {1};
+        for (ClassIndex part : parts) {
+            part.classes().forEach(map::putIfAbsent);
+            hash[0] = hash[0] * 31 + part.fingerprint;
+        }
+        Map<String, Long> stamps = new HashMap<>();
+        for (Path root : roots) {
+            if (root != null && Files.isDirectory(root)) {
+                enumerate(root, null, null, map, hash, stamps);
+            }
+        }
+        packageStamps.putAll(stamps);
+        for (Archive archive : archives) {
+            enumerate(archive, map, hash);
+        }
+        fingerprint = hash[0];
+        return map;
+    }
+
+    /*
+     * Enumerates the archive into its own map first, so that it is enumerated again from the start
+     * if another thread closes it in the meantime.
+     */
+    private static void enumerate(Archive archive, Map<String, Object> map, long[] hash) {
+        for (int attempt = 1; attempt <= ArchivePool.MAX_REOPEN_ATTEMPTS; attempt++) {
+            Map<String, Object> entries = new HashMap<>();
+            long[] archiveHash = {0};
+            try {
+                Path archiveRoot = archive.pool.root(archive.file);
+                for (Path root : SearchPath.multiReleaseRoots(archiveRoot, archive.release)) {
+                    enumerate(root, archive, archiveRoot, entries, archiveHash, null);
+                }
+            } catch (ClosedFileSystemException e) {
+                continue;
+            } catch (IOException | RuntimeException e) {
+                // Not a readable archive
+                return;
+            }
+            entries.forEach(map::putIfAbsent);
+            hash[0] += archiveHash[0];
+            return;
+        }
+    }
+
+    /*
+     * Class files of an archive are recorded by their path relative to archiveRoot,
+     * instead of a path of the file system of the archive. The stamps of the packages of directory roots
+     * are added to packageStamps, unless it is null.
+     */
+    private static void enumerate(Path root, Archive archive, Path archiveRoot, Map<String, Object> map, long[] hash,
+                                  Map<String, Long> packageStamps) {
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".class")) {
+                        String name = relativeName(root, file);
+                        if (!map.containsKey(name)) {
+                            if (archive == null) {
+                                map.put(name, file);
+                            } else {
+                                String location = root.equals(archiveRoot) ? name : relativeName(archiveRoot, file);
+                                map.put(name, new ArchiveEntry(archive, location));
+                            }
+                        }
+                        long stamp = stampOf(name, attrs);
+                        hash[0] += stamp;
+                        if (packageStamps != null) {
+                            packageStamps.merge(packageOf(name), stamp, Long::sum);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String relativeName(Path root, Path file) {
+        Path relative = root.relativize(file);
+        int count = relative.getNameCount();
+        if (count == 1) {
+            return relative.toString();
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i != 0) {
+                builder.append('/');
+            }
+            builder.append(relative.getName(i));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        if (!archives.isEmpty()) {
+            return "ClassIndex" + archives;
+        }
+        return "ClassIndex" + (parts.isEmpty() ? roots : parts);
+    }
+
+    private static final class Archive {
+        final ArchivePool pool;
+        final Path file;
+        final int release;
+
+        Archive(ArchivePool pool, Path file, int release) {
+            this.pool = pool;
+            this.file = file;
+            this.release = release;
+        }
+
+        @Override
+        public String toString() {
+            return file.toString();
+        }
+    }
+
+    private static final class ArchiveEntry {
+        final Archive archive;
+        final String location;
+
+        ArchiveEntry(Archive archive, String location) {
+            this.archive = archive;
+            this.location = location;
+        }
+
+        /*
+         * Returns null if the archive cannot be opened again.
+         */
+        Path resolve() {
+            try {
+                return archive.pool.root(archive.file).resolve(location);
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -2,29 +2,69 @@ package org.glavo.javah.search;
 
 import org.glavo.javah.ClassName;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
-import java.util.List;
 import java.util.Objects;
 
-import static org.glavo.javah.util.Utils.*;
-
 public class ClassPath implements SearchPath {
     private final Path path;
-    private final List<Path> roots;
+    private final int release;
+    private final ClassIndex index;
 
     public ClassPath(Path path) {
+        this(path, ArchivePool.SHARED);
+    }
+
+    /**
+     * Creates a class path whose archive, if it is one, is opened through {@code pool} on the first lookup.
+     */
+    public ClassPath(Path path, ArchivePool pool) {
+        this(path, pool, LATEST_RELEASE);
+    }
+
+    /**
+     * Creates a class path whose archive, if it is one, is opened through {@code pool} on the first lookup,
+     * and which only looks up the versioned class files of a multi-release archive or directory
+     * up to {@code release}.
+     */
+    public ClassPath(Path path, ArchivePool pool, int release) {
         Objects.requireNonNull(path);
+        Objects.requireNonNull(pool);
+        if (release <= 0) {
+            throw new IllegalArgumentException("Illegal release: " + release);
+        }
         this.path = path.toAbsolutePath();
+        this.release = release;
 
-        Path root = classPathRoot(path);
-        roots = root == null ? Collections.emptyList() : SearchPath.multiReleaseRoots(root);
+        if (Files.isDirectory(this.path)) {
+            index = new ClassIndex(SearchPath.multiReleaseRoots(this.path, release));
+        } else if (Files.isRegularFile(this.path) && ArchivePool.isArchive(this.path)) {
+            index = new ClassIndex(pool, Collections.singletonList(this.path), release);
+        } else {
+            index = new ClassIndex(Collections.emptyList());
+        }
     }
 
     @Override
     public Path search(ClassName name) {
         Objects.requireNonNull(name);
-        return SearchPath.searchFromRoots(roots, name);
+        return index.search(name);
+    }
+
+    /**
+     * Returns the absolute path of the directory or archive.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    public int getRelease() {
+        return release;
+    }
+
+    public ClassIndex index() {
+        return index;
     }
 
     @Override
@@ -32,7 +72,7 @@ public class ClassPath implements SearchPath {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ClassPath classPath = (ClassPath) o;
-        return Objects.equals(path, classPath.path);
+        return release == classPath.release && Objects.equals(path, classPath.path);
     }
 
     @Override
@@ -42,6 +82,8 @@ public class ClassPath implements SearchPath {
 
     @Override
     public String toString() {
-        return "ClassPath[" + path + "]";
+        return release == LATEST_RELEASE
+                ? "ClassPath[" + path + "]"
+                : "ClassPath[" + path + ", release=" + release + "]";
     }
 }
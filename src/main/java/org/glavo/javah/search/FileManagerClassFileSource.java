@@ -0,0 +1,71 @@
+package org.glavo.javah.search;
+
+import org.glavo.javah.ClassName;
+
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The class files of a {@link JavaFileManager}, such as the one of an in-process compilation, which may keep
+ * the class files it compiled in memory. Classes are looked up in the given locations, in order, by their
+ * binary names, and module names of class names are ignored. Since file managers are not required to be
+ * thread-safe, lookups are serialized on the file manager.
+ */
+public final class FileManagerClassFileSource implements ClassFileSource {
+    private final JavaFileManager fileManager;
+    private final List<JavaFileManager.Location> locations;
+
+    /**
+     * Creates a source of the class output and the class path of {@code fileManager}.
+     */
+    public FileManagerClassFileSource(JavaFileManager fileManager) {
+        this(fileManager, StandardLocation.CLASS_OUTPUT, StandardLocation.CLASS_PATH);
+    }
+
+    public FileManagerClassFileSource(JavaFileManager fileManager, JavaFileManager.Location... locations) {
+        Objects.requireNonNull(fileManager);
+        Objects.requireNonNull(locations);
+        this.fileManager = fileManager;
+        this.locations = Collections.unmodifiableList(Arrays.asList(locations.clone()));
+    }
+
+    @Override
+    public ByteBuffer read(ClassName name) throws IOException {
+        Objects.requireNonNull(name);
+        synchronized (fileManager) {
+            for (JavaFileManager.Location location : locations) {
+                if (!fileManager.hasLocation(location)) {
+                    continue;
+                }
+                JavaFileObject file = fileManager.getJavaFileForInput(location, name.className(), JavaFileObject.Kind.CLASS);
+                if (file == null) {
+                    continue;
+                }
+                try (InputStream in = file.openInputStream()) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                    return ByteBuffer.wrap(out.toByteArray());
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "FileManagerClassFileSource" + locations;
+    }
+}
@@ -0,0 +1,56 @@
+package org.glavo.javah.search;
+
+import org.glavo.javah.ClassName;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class files held in memory, keyed by the binary names of their classes, such as {@code com.acme.Outer$Inner}.
+ * Classes may be added and removed while headers are generated. Module names of class names are ignored.
+ */
+public final class MemoryClassFileSource implements ClassFileSource {
+    private final Map<String, ByteBuffer> classes = new ConcurrentHashMap<>();
+
+    public MemoryClassFileSource() {
+    }
+
+    public MemoryClassFileSource(Map<String, byte[]> classes) {
+        Objects.requireNonNull(classes);
+        classes.forEach(this::put);
+    }
+
+    /**
+     * Adds the class file of the class {@code name}. The array is not copied, so it must not be modified afterwards.
+     */
+    public void put(String name, byte[] classFile) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(classFile);
+        classes.put(ClassName.ofFullName(name).className(), ByteBuffer.wrap(classFile));
+    }
+
+    public void remove(String name) {
+        Objects.requireNonNull(name);
+        classes.remove(name);
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    @Override
+    public ByteBuffer read(ClassName name) {
+        Objects.requireNonNull(name);
+        ByteBuffer b = classes.get(name.className());
+        return b == null ? null : b.asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryClassFileSource[" + classes.size() + " classes]";
+    }
+}
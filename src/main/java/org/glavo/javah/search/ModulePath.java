@@ -2,52 +2,236 @@ package org.glavo.javah.search;
 
 import org.glavo.javah.ClassName;
 import org.glavo.javah.util.Utils;
+import org.objectweb.asm.ClassReader;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedFileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * The modules packaged as archives in a directory.
+ * <p>
+ * On the first lookup, the name of each module is read from its {@code module-info} class, or from the
+ * {@code Automatic-Module-Name} of its manifest, or else derived from the archive name as for automatic
+ * modules, and the packages of each module are collected from its class files. A class qualified by
+ * a module name is then only looked up in that module, and any other class in the module owning its
+ * package, so a lookup probes a single archive however many the directory contains. If several archives
+ * declare the same module, or contain the same package, the first in name order is used.
+ */
 public class ModulePath implements SearchPath {
+    private static final Pattern VERSION_PATTERN = Pattern.compile("-(\\d+(\\.|$))");
+    private static final Pattern NON_ALPHANUMERIC_PATTERN = Pattern.compile("[^A-Za-z0-9]+");
+
     private final Path path;
-    private List<Path> roots;
+    private final ArchivePool pool;
+    private final int release;
+    private final List<Path> archives;
+    private volatile Modules modules;
+    private volatile ClassIndex index;
 
     public ModulePath(Path path) {
+        this(path, ArchivePool.SHARED);
+    }
+
+    /**
+     * Creates a module path whose archives are opened through {@code pool} when they are first needed.
+     */
+    public ModulePath(Path path, ArchivePool pool) {
+        this(path, pool, LATEST_RELEASE);
+    }
+
+    /**
+     * Creates a module path whose archives are opened through {@code pool} when they are first needed,
+     * and which only looks up the versioned class files of multi-release archives up to {@code release}.
+     */
+    public ModulePath(Path path, ArchivePool pool, int release) {
         Objects.requireNonNull(path);
+        Objects.requireNonNull(pool);
+        if (release <= 0) {
+            throw new IllegalArgumentException("Illegal release: " + release);
+        }
         path = path.toAbsolutePath();
         this.path = path;
+        this.pool = pool;
+        this.release = release;
+        List<Path> archives;
         if (Files.notExists(path) || !Files.isDirectory(path)) {
-            roots = Collections.emptyList();
+            archives = Collections.emptyList();
         } else {
-            try {
-                roots = Files.list(path)
+            try (Stream<Path> list = Files.list(path)) {
+                archives = list
                         .map(Path::toAbsolutePath)
                         .filter(Files::isRegularFile)
-                        .filter(p -> {
-                            String n = p.getFileName().toString().toLowerCase();
-                            return n.endsWith(".jar") || n.endsWith(".zip") || n.endsWith(".jmod");
-                        })
-                        .map(Utils::classPathRoot)
-                        .filter(Objects::nonNull)
-                        .flatMap(p -> SearchPath.multiReleaseRoots(p).stream())
+                        .filter(ArchivePool::isArchive)
+                        .sorted()
                         .collect(Collectors.toList());
             } catch (IOException e) {
-                roots = Collections.emptyList();
+                archives = Collections.emptyList();
             }
         }
+        this.archives = archives;
     }
 
     @Override
     public Path search(ClassName name) {
         Objects.requireNonNull(name);
-        return SearchPath.searchFromRoots(roots, name);
+        Modules m = modules();
+        ClassIndex module;
+        if (name.moduleName() != null) {
+            module = m.byName.get(name.moduleName());
+        } else {
+            String relativePath = name.relativePath();
+            module = m.byPackage.get(relativePath.substring(0, Math.max(relativePath.lastIndexOf('/'), 0)));
+        }
+        return module == null ? null : module.search(name);
+    }
+
+    /**
+     * Returns the names of the modules of this module path, in the order of their archives.
+     */
+    public Set<String> moduleNames() {
+        return modules().byName.keySet();
+    }
+
+    /**
+     * Returns an index of the classes of all modules, which ignores module names.
+     */
+    public ClassIndex index() {
+        ClassIndex i = index;
+        if (i == null) {
+            synchronized (this) {
+                i = index;
+                if (i == null) {
+                    index = i = ClassIndex.ofParts(new ArrayList<>(modules().byName.values()));
+                }
+            }
+        }
+        return i;
+    }
+
+    private Modules modules() {
+        Modules m = modules;
+        if (m == null) {
+            synchronized (this) {
+                m = modules;
+                if (m == null) {
+                    modules = m = readModules();
+                }
+            }
+        }
+        return m;
+    }
+
+    private Modules readModules() {
+        Map<String, ClassIndex> byName = new LinkedHashMap<>();
+        Map<String, ClassIndex> byPackage = new HashMap<>();
+        for (Path archive : archives) {
+            ClassIndex module = new ClassIndex(pool, Collections.singletonList(archive), release);
+            String moduleName = moduleNameOf(archive);
+            if (moduleName == null || byName.containsKey(moduleName)) {
+                continue;
+            }
+            byName.put(moduleName, module);
+            for (String file : module.names()) {
+                int idx = file.lastIndexOf('/');
+                if (idx > 0 && !file.startsWith("META-INF/")) {
+                    byPackage.putIfAbsent(file.substring(0, idx), module);
+                }
+            }
+        }
+        return new Modules(Collections.unmodifiableMap(byName), byPackage);
+    }
+
+    /*
+     * Returns null if the archive cannot be read.
+     */
+    private String moduleNameOf(Path archive) {
+        for (int attempt = 1; attempt <= ArchivePool.MAX_REOPEN_ATTEMPTS; attempt++) {
+            try {
+                return readModuleName(archive);
+            } catch (ClosedFileSystemException e) {
+                // Closed by another thread, reopened by the next attempt
+            }
+        }
+        return null;
+    }
+
+    private String readModuleName(Path archive) {
+        Path root;
+        try {
+            root = pool.root(archive);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+
+        for (Path r : SearchPath.multiReleaseRoots(root, release)) {
+            Path moduleInfo = r.resolve("module-info.class");
+            if (Files.isRegularFile(moduleInfo)) {
+                try {
+                    return Utils.moduleNameOf(new ClassReader(Files.readAllBytes(moduleInfo)));
+                } catch (ClosedFileSystemException e) {
+                    throw e;
+                } catch (IOException | RuntimeException e) {
+                    return null;
+                }
+            }
+        }
+
+        try (InputStream in = Files.newInputStream(root.resolve("META-INF").resolve("MANIFEST.MF"))) {
+            String name = new Manifest(in).getMainAttributes().getValue("Automatic-Module-Name");
+            if (name != null) {
+                return name;
+            }
+        } catch (IOException ignored) {
+        }
+        return automaticModuleName(archive.getFileName().toString());
+    }
+
+    /*
+     * Derives the name of an automatic module from the name of its archive, as java.lang.module.ModuleFinder does.
+     */
+    static String automaticModuleName(String fileName) {
+        int idx = fileName.lastIndexOf('.');
+        String name = idx > 0 ? fileName.substring(0, idx) : fileName;
+        Matcher m = VERSION_PATTERN.matcher(name);
+        if (m.find()) {
+            name = name.substring(0, m.start());
+        }
+        name = NON_ALPHANUMERIC_PATTERN.matcher(name).replaceAll(".");
+        int start = 0;
+        int end = name.length();
+        while (start < end && name.charAt(start) == '.') {
+            start++;
+        }
+        while (end > start && name.charAt(end - 1) == '.') {
+            end--;
+        }
+        return start < end ? name.substring(start, end) : null;
     }
 
     @Override
     public String toString() {
-        return "ModulePath[" + path + "]";
+        return release == LATEST_RELEASE
+                ? "ModulePath[" + path + "]"
+                : "ModulePath[" + path + ", release=" + release + "]";
+    }
+
+    private static final class Modules {
+        final Map<String, ClassIndex> byName;
+        // Keyed by internal package name
+        final Map<String, ClassIndex> byPackage;
+
+        Modules(Map<String, ClassIndex> byName, Map<String, ClassIndex> byPackage) {
+            this.byName = byName;
+            this.byPackage = byPackage;
+        }
     }
 }
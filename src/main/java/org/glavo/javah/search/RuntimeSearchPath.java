@@ -4,10 +4,18 @@ import org.glavo.javah.ClassName;
 
 import java.io.IOException;
 import java.net.URI;
+import java.net.URL;
 import java.nio.file.*;
-import java.util.Collections;
-import java.util.Objects;
+import java.util.*;
+import java.util.stream.Stream;
 
+/**
+ * Searches the classes visible to the running JVM.
+ * <p>
+ * Classes in the runtime image are resolved in the {@code jrt:/} file system through a package to module
+ * map that is computed once; other classes are located as resources of the class loader of gjavah.
+ * No class is ever loaded or initialized by a lookup.
+ */
 public class RuntimeSearchPath implements SearchPath {
     public static final RuntimeSearchPath INSTANCE = new RuntimeSearchPath();
 
@@ -18,24 +26,69 @@ public class RuntimeSearchPath implements SearchPath {
     @Override
     public Path search(ClassName name) {
         Objects.requireNonNull(name);
+        Path p = searchRuntimeImage(name);
+        return p != null ? p : searchClassLoader(name);
+    }
+
+    private static Path searchRuntimeImage(ClassName name) {
+        Path modules = RuntimeImage.MODULES;
+        if (modules == null) {
+            return null;
+        }
+        String relativePath = name.relativePath();
+        if (name.moduleName() != null) {
+            Path p = modules.resolve(name.moduleName()).resolve(relativePath);
+            return Files.isRegularFile(p) ? p : null;
+        }
+
+        String className = name.className();
+        int idx = className.lastIndexOf('.');
+        if (idx == -1) {
+            return null;
+        }
+        String[] owners = RuntimeImage.PACKAGES.get(className.substring(0, idx));
+        if (owners == null) {
+            return null;
+        }
+        for (String module : owners) {
+            Path p = modules.resolve(module).resolve(relativePath);
+            if (Files.isRegularFile(p)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    private static Path searchClassLoader(ClassName name) {
+        ClassLoader loader = RuntimeSearchPath.class.getClassLoader();
+        URL url = loader == null
+                ? ClassLoader.getSystemResource(name.relativePath())
+                : loader.getResource(name.relativePath());
+        if (url == null) {
+            return null;
+        }
         URI uri = null;
         try {
-            Class<?> cls = Class.forName(name.className());
-            uri = cls.getResource(name.simpleName() + ".class").toURI();
+            uri = url.toURI();
             return Paths.get(uri);
         } catch (FileSystemNotFoundException ex) {
-            if (uri == null) {
-                return null;
-            }
             try {
-                return FileSystems.newFileSystem(uri, Collections.emptyMap()).getPath("/", name.relativePath());
-            } catch (IOException | NullPointerException ignored) {
+                return fileSystemOf(uri).getPath("/", name.relativePath());
+            } catch (IOException | RuntimeException ignored) {
             }
         } catch (Exception ignored) {
         }
         return null;
     }
 
+    private static synchronized FileSystem fileSystemOf(URI uri) throws IOException {
+        try {
+            return FileSystems.getFileSystem(uri);
+        } catch (FileSystemNotFoundException ex) {
+            return FileSystems.newFileSystem(uri, Collections.emptyMap());
+        }
+    }
+
     public static Path searchClass(String name) {
         return INSTANCE.search(name);
     }
@@ -43,4 +96,38 @@ public class RuntimeSearchPath implements SearchPath {
     public static Path searchClass(ClassName name) {
         return INSTANCE.search(name);
     }
+
+    /*
+     * The jrt file system lists every package of the image under "/packages/<package>/<module>",
+     * which is read once here instead of asking the module system, so that modules
+     * outside of the boot layer are found as well.
+     */
+    private static final class RuntimeImage {
+        static final Path MODULES;
+        static final Map<String, String[]> PACKAGES;
+
+        static {
+            Path modules = null;
+            Map<String, String[]> packages = Collections.emptyMap();
+            try {
+                FileSystem fs = FileSystems.getFileSystem(URI.create("jrt:/"));
+                Map<String, String[]> map = new HashMap<>();
+                try (Stream<Path> list = Files.list(fs.getPath("/packages"))) {
+                    list.forEach(p -> {
+                        try (Stream<Path> owners = Files.list(p)) {
+                            map.put(p.getFileName().toString(),
+                                    owners.map(o -> o.getFileName().toString()).toArray(String[]::new));
+                        } catch (IOException ignored) {
+                        }
+                    });
+                }
+                modules = fs.getPath("/modules");
+                packages = map;
+            } catch (IOException | RuntimeException ignored) {
+                // No runtime image, e.g. on Java 8
+            }
+            MODULES = modules;
+            PACKAGES = packages;
+        }
+    }
 }
@@ -9,10 +9,21 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.glavo.javah.util.Utils.*;
 
+/**
+ * A place to look up class files. Implementations must be safe for concurrent use,
+ * since headers of different classes may be generated in parallel.
+ */
 public interface SearchPath {
+    /**
+     * The release that selects the versioned class files of the highest version
+     * in multi-release archives and directories.
+     */
+    int LATEST_RELEASE = Integer.MAX_VALUE;
+
     Path search(ClassName name);
 
     default Path search(String fullName) {
@@ -63,7 +74,20 @@ public interface SearchPath {
     }
 
     static List<Path> multiReleaseRoots(Path root) {
+        return multiReleaseRoots(root, LATEST_RELEASE);
+    }
+
+    /**
+     * Returns the roots of the class files of {@code root} as seen by the Java platform {@code release}:
+     * if it is a multi-release archive or directory, the version directories from {@code release}
+     * down to 9, in that order, followed by {@code root}; otherwise only {@code root}.
+     * Version directories above {@code release} are left out, so they are never looked up.
+     */
+    static List<Path> multiReleaseRoots(Path root, int release) {
         Objects.requireNonNull(root);
+        if (release <= 0) {
+            throw new IllegalArgumentException("Illegal release: " + release);
+        }
         if (!Files.isDirectory(root)) {
             return Collections.emptyList();
         }
@@ -73,16 +97,22 @@ public interface SearchPath {
         } catch (IOException | NullPointerException ignored) {
         }
 
-        if (isMultiRelease) {
+        if (isMultiRelease && release >= 9) {
             Path base = root.resolve("META-INF").resolve("versions");
             if (Files.isDirectory(base)) {
                 try {
-                    List<Path> list = Files.list(base)
-                            .map(Path::toAbsolutePath)
-                            .filter(Files::isDirectory)
-                            .filter(p -> MULTI_RELEASE_VERSIONS.contains(p.getFileName().toString()))
-                            .sorted(Comparator.comparing((Path p) -> Integer.parseInt(p.getFileName().toString())).reversed())
-                            .collect(Collectors.toCollection(LinkedList::new));
+                    List<Path> list;
+                    try (Stream<Path> versions = Files.list(base)) {
+                        list = versions
+                                .map(Path::toAbsolutePath)
+                                .filter(p -> {
+                                    int version = versionOf(p.getFileName().toString());
+                                    return version >= 9 && version <= release;
+                                })
+                                .filter(Files::isDirectory)
+                                .sorted(Comparator.comparing((Path p) -> versionOf(p.getFileName().toString())).reversed())
+                                .collect(Collectors.toCollection(ArrayList::new));
+                    }
                     list.add(root);
                     return Collections.unmodifiableList(list);
                 } catch (IOException ignored) {
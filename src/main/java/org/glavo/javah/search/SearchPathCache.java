@@ -0,0 +1,131 @@
+package org.glavo.javah.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Reuses class paths and module paths, with their opened archives and indexes, across tasks.
+ * <p>
+ * An archive is reused as long as its size and modification time are unchanged, and a module path
+ * as long as the same archives, unchanged, are in its directory. Directories on the class path
+ * are indexed anew for every request, since their content is expected to change between builds.
+ * The archives are opened through a pool owned by the cache, and closed with it. Search paths
+ * for different releases are cached separately, since they index different multi-release class files.
+ */
+public final class SearchPathCache implements Closeable {
+    private final ArchivePool archivePool = new ArchivePool();
+    private final ConcurrentMap<Key, Entry<ClassPath>> classPaths = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, Entry<ModulePath>> modulePaths = new ConcurrentHashMap<>();
+
+    public ClassPath classPath(Path path) {
+        return classPath(path, SearchPath.LATEST_RELEASE);
+    }
+
+    public ClassPath classPath(Path path, int release) {
+        Objects.requireNonNull(path);
+        Path p = path.toAbsolutePath();
+        if (Files.isDirectory(p)) {
+            return new ClassPath(p, archivePool, release);
+        }
+        String stamp = stampOf(p);
+        return classPaths.compute(new Key(p, release), (k, e) -> {
+            if (e != null && e.stamp.equals(stamp)) {
+                return e;
+            }
+            archivePool.invalidate(p);
+            return new Entry<>(stamp, new ClassPath(p, archivePool, release));
+        }).value;
+    }
+
+    public ModulePath modulePath(Path path) {
+        return modulePath(path, SearchPath.LATEST_RELEASE);
+    }
+
+    public ModulePath modulePath(Path path, int release) {
+        Objects.requireNonNull(path);
+        Path p = path.toAbsolutePath();
+        String stamp;
+        try (Stream<Path> list = Files.list(p)) {
+            StringBuilder builder = new StringBuilder();
+            list.sorted().forEach(f -> builder.append(f.getFileName()).append(stampOf(f)).append('/'));
+            stamp = builder.toString();
+        } catch (IOException e) {
+            return new ModulePath(p, archivePool, release);
+        }
+        return modulePaths.compute(new Key(p, release), (k, e) -> {
+            if (e != null && e.stamp.equals(stamp)) {
+                return e;
+            }
+            archivePool.invalidate(p);
+            return new Entry<>(stamp, new ModulePath(p, archivePool, release));
+        }).value;
+    }
+
+    public ArchivePool getArchivePool() {
+        return archivePool;
+    }
+
+    /**
+     * Drops the cached search paths, and closes their archives.
+     */
+    public void clear() {
+        classPaths.clear();
+        modulePaths.clear();
+        archivePool.clear();
+    }
+
+    @Override
+    public void close() {
+        clear();
+        archivePool.close();
+    }
+
+    private static String stampOf(Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static final class Key {
+        final Path path;
+        final int release;
+
+        Key(Path path, int release) {
+            this.path = path;
+            this.release = release;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return release == key.release && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + release;
+        }
+    }
+
+    private static final class Entry<T> {
+        final String stamp;
+        final T value;
+
+        Entry(String stamp, T value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.glavo.javah.util;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads class files, or copies class files supplied in memory, into a buffer owned by the calling thread.
+ * <p>
+ * The file is read through a channel straight into the buffer, using the size reported by the channel
+ * (the uncompressed size for zip entries), so once the buffer has grown to the largest class file read
+ * by a thread, reading a class file does not allocate a byte array. The content is only valid until the
+ * next read on the same thread, so it must be consumed before reading another class file.
+ */
+final class ClassFileBuffer {
+    private static final int INITIAL_SIZE = 16 * 1024;
+
+    private static final ThreadLocal<ClassFileBuffer> BUFFERS = ThreadLocal.withInitial(ClassFileBuffer::new);
+
+    private byte[] array = new byte[INITIAL_SIZE];
+    private ByteBuffer buffer = ByteBuffer.wrap(array);
+    private int length;
+
+    private ClassFileBuffer() {
+    }
+
+    /**
+     * Reads {@code file} into the buffer of the calling thread.
+     */
+    static ClassFileBuffer read(Path file) throws IOException {
+        ClassFileBuffer b = BUFFERS.get();
+        b.load(file);
+        return b;
+    }
+
+    /**
+     * Copies the remaining content of {@code content} into the buffer of the calling thread,
+     * without changing its position.
+     */
+    static ClassFileBuffer read(ByteBuffer content) {
+        ClassFileBuffer b = BUFFERS.get();
+        b.length = 0;
+        b.ensureCapacity(content.remaining());
+        content.duplicate().get(b.array, 0, content.remaining());
+        b.length = content.remaining();
+        return b;
+    }
+
+    private void load(Path file) throws IOException {
+        length = 0;
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("Class file too large: " + file);
+            }
+            // One more byte than the expected size, so that the end of the file is reached without growing
+            ensureCapacity((int) size + 1);
+            while (true) {
+                if (length == array.length) {
+                    ensureCapacity(length * 2);
+                }
+                ((Buffer) buffer).limit(array.length);
+                ((Buffer) buffer).position(length);
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                length += n;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (array.length < capacity) {
+            byte[] newArray = new byte[Math.max(capacity, array.length * 2)];
+            System.arraycopy(array, 0, newArray, 0, length);
+            array = newArray;
+            buffer = ByteBuffer.wrap(newArray);
+        }
+    }
+
+    byte[] array() {
+        return array;
+    }
+
+    int length() {
+        return length;
+    }
+
+    ClassReader reader() {
+        return new ClassReader(array, 0, length);
+    }
+}
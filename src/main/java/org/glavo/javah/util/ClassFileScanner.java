@@ -0,0 +1,159 @@
+package org.glavo.javah.util;
+
+/**
+ * Decides from the raw bytes of a class file whether its header has any content, without parsing
+ * it with ASM: the constant pool is only walked to record where each entry starts, then the field
+ * and method tables are checked for {@code ACC_NATIVE} methods and non-{@code String} {@code ConstantValue}
+ * attributes, which are exactly what {@link ClassMetaInfo} collects.
+ * <p>
+ * Malformed class files are reported as relevant, so that the error is raised by the full parse.
+ */
+public final class ClassFileScanner {
+    private static final int ACC_NATIVE = 0x0100;
+
+    private static final byte[] CONSTANT_VALUE = {'C', 'o', 'n', 's', 't', 'a', 'n', 't', 'V', 'a', 'l', 'u', 'e'};
+
+    private static final ThreadLocal<int[]> OFFSETS = ThreadLocal.withInitial(() -> new int[1024]);
+
+    private ClassFileScanner() {
+    }
+
+    public static boolean hasNativeMethodsOrConstants(byte[] bytes) {
+        return hasNativeMethodsOrConstants(bytes, 0, bytes.length);
+    }
+
+    public static boolean hasNativeMethodsOrConstants(byte[] b, int off, int len) {
+        try {
+            return scan(b, off, off + len);
+        } catch (IndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    private static boolean scan(byte[] b, int off, int end) {
+        if (end - off < 10 || readInt(b, off, end) != 0xCAFEBABE) {
+            return true;
+        }
+        int count = readUnsignedShort(b, off + 8, end);
+        int[] offsets = OFFSETS.get();
+        if (offsets.length < count) {
+            OFFSETS.set(offsets = new int[Math.max(count, offsets.length * 2)]);
+        }
+
+        int constantValue = 0;
+        int p = off + 10;
+        for (int i = 1; i < count; i++) {
+            if (p >= end) {
+                return true;
+            }
+            offsets[i] = p;
+            switch (b[p]) {
+                case 1: // Utf8
+                    int length = readUnsignedShort(b, p + 1, end);
+                    if (p + 3 + length > end) {
+                        return true;
+                    }
+                    if (constantValue == 0 && isConstantValue(b, p + 3, length)) {
+                        constantValue = i;
+                    }
+                    p += 3 + length;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    p += 3;
+                    break;
+                case 15: // MethodHandle
+                    p += 4;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    p += 5;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    p += 9;
+                    i++;
+                    break;
+                default:
+                    return true;
+            }
+        }
+
+        p += 6; // access_flags, this_class, super_class
+        p += 2 + 2 * readUnsignedShort(b, p, end);
+
+        int fields = readUnsignedShort(b, p, end);
+        p += 2;
+        for (int i = 0; i < fields; i++) {
+            int attributes = readUnsignedShort(b, p + 6, end);
+            p += 8;
+            for (int j = 0; j < attributes; j++) {
+                int name = readUnsignedShort(b, p, end);
+                int length = readInt(b, p + 2, end);
+                if (length < 0) {
+                    return true;
+                }
+                if (constantValue != 0 && name == constantValue) {
+                    int value = readUnsignedShort(b, p + 6, end);
+                    if (value <= 0 || value >= count || b[offsets[value]] != 8) {
+                        return true;
+                    }
+                }
+                p += 6 + length;
+            }
+        }
+
+        int methods = readUnsignedShort(b, p, end);
+        p += 2;
+        for (int i = 0; i < methods; i++) {
+            if ((readUnsignedShort(b, p, end) & ACC_NATIVE) != 0) {
+                return true;
+            }
+            int attributes = readUnsignedShort(b, p + 6, end);
+            p += 8;
+            for (int j = 0; j < attributes; j++) {
+                int length = readInt(b, p + 2, end);
+                if (length < 0) {
+                    return true;
+                }
+                p += 6 + length;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isConstantValue(byte[] b, int p, int length) {
+        if (length != CONSTANT_VALUE.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (b[p + i] != CONSTANT_VALUE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readUnsignedShort(byte[] b, int p, int end) {
+        if (p + 2 > end) {
+            throw new IndexOutOfBoundsException();
+        }
+        return ((b[p] & 0xff) << 8) | (b[p + 1] & 0xff);
+    }
+
+    private static int readInt(byte[] b, int p, int end) {
+        if (p + 4 > end) {
+            throw new IndexOutOfBoundsException();
+        }
+        return ((b[p] & 0xff) << 24) | ((b[p + 1] & 0xff) << 16) | ((b[p + 2] & 0xff) << 8) | (b[p + 3] & 0xff);
+    }
+}
@@ -0,0 +1,105 @@
+package org.glavo.javah.util;
+
+import org.glavo.javah.ClassName;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the superclasses of resolved classes, whether they are subclasses of {@code java.lang.Throwable},
+ * and which classes could not be found, so that each class is resolved at most once.
+ * <p>
+ * A hierarchy is thread-safe. Entries are only invalidated through {@link #invalidate(ClassName)},
+ * so an instance should only be shared between tasks that see the same class files.
+ */
+public final class ClassHierarchy {
+    private final ConcurrentMap<ClassName, Optional<ClassName>> superClasses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ClassName, Boolean> throwables = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ClassName, Boolean> missing = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ClassName, String> digests = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the superclass of {@code name}, which is empty for {@code java.lang.Object},
+     * or {@code null} if it has not been resolved yet.
+     */
+    public Optional<ClassName> superClassOf(ClassName name) {
+        Objects.requireNonNull(name);
+        return superClasses.get(name);
+    }
+
+    public void putSuperClass(ClassName name, ClassName superName) {
+        Objects.requireNonNull(name);
+        superClasses.put(name, Optional.ofNullable(superName));
+    }
+
+    /**
+     * Returns whether {@code name} is a subclass of {@code java.lang.Throwable},
+     * or {@code null} if it is not known yet.
+     */
+    public Boolean isThrowable(ClassName name) {
+        Objects.requireNonNull(name);
+        return throwables.get(name);
+    }
+
+    public void putThrowable(ClassName name, boolean throwable) {
+        Objects.requireNonNull(name);
+        throwables.put(name, throwable);
+    }
+
+    public boolean isMissing(ClassName name) {
+        Objects.requireNonNull(name);
+        return missing.containsKey(name);
+    }
+
+    /**
+     * Records that {@code name} could not be found.
+     *
+     * @return {@code true} if it was not recorded before
+     */
+    public boolean markMissing(ClassName name) {
+        Objects.requireNonNull(name);
+        return missing.putIfAbsent(name, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Returns the digest of the class file of {@code name} as computed by {@link HeaderCache#digestOf(byte[])},
+     * an empty string if it was not found, or {@code null} if it has not been computed yet.
+     */
+    public String digestOf(ClassName name) {
+        Objects.requireNonNull(name);
+        return digests.get(name);
+    }
+
+    public void putDigest(ClassName name, String digest) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(digest);
+        digests.put(name, digest);
+    }
+
+    /**
+     * Forgets what is known about {@code name}, after its class file changed. If its superclass had been resolved,
+     * which classes are throwables is forgotten for all classes, since it may have been derived from it.
+     *
+     * @return whether the superclass of {@code name} had been resolved, or it had been found missing,
+     * in which case the headers of other classes may depend on it
+     */
+    public boolean invalidate(ClassName name) {
+        Objects.requireNonNull(name);
+        digests.remove(name);
+        boolean wasMissing = missing.remove(name) != null;
+        if (superClasses.remove(name) == null && !wasMissing) {
+            return false;
+        }
+        throwables.clear();
+        return true;
+    }
+
+    public void clear() {
+        digests.clear();
+        superClasses.clear();
+        throwables.clear();
+        missing.clear();
+    }
+}
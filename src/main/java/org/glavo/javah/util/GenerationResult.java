@@ -0,0 +1,96 @@
+package org.glavo.javah.util;
+
+import org.glavo.javah.ClassName;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The header of one class rendered in memory by {@link JNIGenerator#render(ClassName)},
+ * together with the diagnostics reported while rendering it.
+ */
+public final class GenerationResult {
+    private final ClassName className;
+    private final String fileName;
+    private final byte[] header;
+    private final List<String> warnings;
+    private final List<String> errors;
+    private final Throwable exception;
+
+    GenerationResult(ClassName className, String fileName, byte[] header,
+                     List<String> warnings, List<String> errors, Throwable exception) {
+        this.className = className;
+        this.fileName = fileName;
+        this.header = header;
+        this.warnings = Collections.unmodifiableList(warnings);
+        this.errors = Collections.unmodifiableList(errors);
+        this.exception = exception;
+    }
+
+    public ClassName className() {
+        return className;
+    }
+
+    /**
+     * Returns the name of the file the header is written to by {@link JNIGenerator#generate(ClassName)}.
+     */
+    public String fileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns a read-only buffer of the UTF-8 encoded header, or {@code null} if it could not be generated.
+     */
+    public ByteBuffer header() {
+        return header == null ? null : ByteBuffer.wrap(header).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a copy of the UTF-8 encoded header, or {@code null} if it could not be generated.
+     */
+    public byte[] headerBytes() {
+        return header == null ? null : header.clone();
+    }
+
+    public List<String> warnings() {
+        return warnings;
+    }
+
+    public List<String> errors() {
+        return errors;
+    }
+
+    /**
+     * Returns the exception that caused the first error, or {@code null}.
+     */
+    public Throwable exception() {
+        return exception;
+    }
+
+    public boolean isSuccess() {
+        return errors.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GenerationResult)) return false;
+        GenerationResult that = (GenerationResult) o;
+        return className.equals(that.className) && Arrays.equals(header, that.header)
+                && warnings.equals(that.warnings) && errors.equals(that.errors);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(className, warnings, errors);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GenerationResult[className=%s, fileName=%s, warnings=%s, errors=%s]",
+                className, fileName, warnings, errors);
+    }
+}
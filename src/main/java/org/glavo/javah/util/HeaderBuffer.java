@@ -0,0 +1,81 @@
+package org.glavo.javah.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Renders headers into buffers owned by the calling thread.
+ * <p>
+ * A header is appended to a reused builder, and encoded into a reused byte array in a single pass,
+ * which copies the characters as they are while they are ASCII, as headers almost always are.
+ * Once the buffers have grown to the largest header rendered by a thread, rendering a header does not
+ * allocate. The content is only valid until the next header is rendered on the same thread,
+ * so it must be written out before rendering another header.
+ */
+final class HeaderBuffer {
+    private static final int INITIAL_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<HeaderBuffer> BUFFERS = ThreadLocal.withInitial(HeaderBuffer::new);
+
+    private final StringBuilder text = new StringBuilder(INITIAL_SIZE);
+    private char[] chars = new char[INITIAL_SIZE];
+    private byte[] bytes = new byte[INITIAL_SIZE];
+
+    private HeaderBuffer() {
+    }
+
+    /**
+     * Returns the empty builder of the calling thread.
+     */
+    static StringBuilder start() {
+        HeaderBuffer b = BUFFERS.get();
+        b.text.setLength(0);
+        return b.text;
+    }
+
+    /**
+     * Encodes the content of the builder of the calling thread in UTF-8.
+     *
+     * @return a buffer over the encoded bytes, from position 0 to its limit
+     */
+    static ByteBuffer encode() {
+        HeaderBuffer b = BUFFERS.get();
+        StringBuilder text = b.text;
+        int length = text.length();
+        if (b.bytes.length < length) {
+            b.bytes = new byte[Math.max(length, b.bytes.length * 2)];
+        }
+        byte[] bytes = b.bytes;
+        for (int i = 0; i < length; i++) {
+            char ch = text.charAt(i);
+            if (ch >= 0x80) {
+                byte[] rest = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                if (bytes.length < i + rest.length) {
+                    byte[] newBytes = new byte[i + rest.length];
+                    System.arraycopy(bytes, 0, newBytes, 0, i);
+                    b.bytes = bytes = newBytes;
+                }
+                System.arraycopy(rest, 0, bytes, i, rest.length);
+                return ByteBuffer.wrap(bytes, 0, i + rest.length);
+            }
+            bytes[i] = (byte) ch;
+        }
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    /**
+     * Writes the content of the builder of the calling thread to {@code writer} in a single call, and flushes it.
+     */
+    static void writeTo(Writer writer) throws IOException {
+        HeaderBuffer b = BUFFERS.get();
+        int length = b.text.length();
+        if (b.chars.length < length) {
+            b.chars = new char[Math.max(length, b.chars.length * 2)];
+        }
+        b.text.getChars(0, length, b.chars, 0);
+        writer.write(b.chars, 0, length);
+        writer.flush();
+    }
+}
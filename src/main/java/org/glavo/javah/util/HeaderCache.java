@@ -0,0 +1,220 @@
+package org.glavo.javah.util;
+
+import org.glavo.javah.ClassName;
+import org.glavo.javah.resource.Version;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * A persistent cache of rendered headers, shared between runs and processes.
+ * <p>
+ * Entries are addressed by the digest of the class file. Each entry also records the digests of the classes
+ * whose superclass chains were consulted to map reference types to {@code jthrowable} or {@code jobject},
+ * and is only used while all of them are unchanged. Entries are published by atomic renames, so concurrent
+ * builds may share a directory; the least recently used entries are evicted when the cache grows beyond its
+ * maximum size.
+ */
+public final class HeaderCache {
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final int MAGIC = 0x4A484331; // "JHC1"
+    private static final byte[] SALT = ("gjavah " + Version.VERSION + " " + System.lineSeparator())
+            .getBytes(StandardCharsets.UTF_8);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final long maxSize;
+    private volatile boolean modified = false;
+
+    public HeaderCache(Path directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    public HeaderCache(Path directory, long maxSize) {
+        Objects.requireNonNull(directory);
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Illegal cache size: " + maxSize);
+        }
+        this.directory = directory.toAbsolutePath();
+        this.maxSize = maxSize;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the key of a class file, which also covers the version of gjavah and the line separator.
+     */
+    public static String keyOf(byte[] classFile) {
+        return keyOf(classFile, 0, classFile.length);
+    }
+
+    public static String keyOf(byte[] classFile, int offset, int length) {
+        MessageDigest md = newDigest();
+        md.update(SALT);
+        md.update(classFile, offset, length);
+        return toHex(md.digest());
+    }
+
+    /**
+     * Returns the digest used to check that a dependency is unchanged.
+     */
+    public static String digestOf(byte[] classFile) {
+        return digestOf(classFile, 0, classFile.length);
+    }
+
+    public static String digestOf(byte[] classFile, int offset, int length) {
+        MessageDigest md = newDigest();
+        md.update(classFile, offset, length);
+        return toHex(md.digest());
+    }
+
+    /**
+     * Returns the cached header for {@code key}, or {@code null} if there is none or if
+     * one of its dependencies changed.
+     *
+     * @param currentDigest returns the current digest of a dependency, or an empty string if it is not found
+     */
+    public byte[] get(String key, Function<ClassName, String> currentDigest) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(currentDigest);
+        Path file = fileOf(key);
+        byte[] header;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                ClassName dependency = ClassName.ofFullName(in.readUTF());
+                if (!in.readUTF().equals(currentDigest.apply(dependency))) {
+                    return null;
+                }
+            }
+            header = new byte[in.readInt()];
+            in.readFully(header);
+        } catch (IOException | RuntimeException ignored) {
+            // Missing, concurrently evicted or corrupted entry
+            return null;
+        }
+
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+        return header;
+    }
+
+    /**
+     * Stores a header.
+     *
+     * @param dependencies the digests of the dependencies, an empty string for classes that were not found
+     */
+    public void put(String key, Map<ClassName, String> dependencies, byte[] header) throws IOException {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(dependencies);
+        Objects.requireNonNull(header);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(header.length + 64 * dependencies.size() + 16);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(MAGIC);
+            out.writeInt(dependencies.size());
+            for (Map.Entry<ClassName, String> entry : dependencies.entrySet()) {
+                out.writeUTF(entry.getKey().toString());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeInt(header.length);
+            out.write(header);
+        }
+
+        Path file = fileOf(key);
+        Files.createDirectories(file.getParent());
+        Utils.writeAtomically(file, buffer.toByteArray());
+        modified = true;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits in its maximum size.
+     * Does nothing if no entry was stored through this instance.
+     */
+    public void trim() throws IOException {
+        if (!modified || Files.notExists(directory)) {
+            return;
+        }
+        modified = false;
+
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        long[] total = {0};
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !file.getFileName().toString().startsWith(".")) {
+                    files.add(file);
+                    attributes.put(file, attrs);
+                    total[0] += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (total[0] <= maxSize) {
+            return;
+        }
+
+        files.sort(Comparator.comparing((Path p) -> attributes.get(p).lastModifiedTime()));
+        for (Path file : files) {
+            if (total[0] <= maxSize) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+            total[0] -= attributes.get(file).size();
+        }
+    }
+
+    private Path fileOf(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return "HeaderCache[" + directory + "]";
+    }
+}
@@ -1,23 +1,66 @@
 package org.glavo.javah.util;
 
 import org.glavo.javah.ClassName;
+import org.glavo.javah.search.ArchivePool;
+import org.glavo.javah.search.ClassFileSource;
 import org.glavo.javah.search.RuntimeSearchPath;
 import org.glavo.javah.search.SearchPath;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.Type;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.glavo.javah.util.Utils.*;
 
+/**
+ * Generates JNI headers. Once configured, one generator may be used by several threads at once
+ * as long as its search paths are thread-safe.
+ */
 public class JNIGenerator {
+    public enum Status {
+        WRITTEN, UNCHANGED, SKIPPED, FAILED
+    }
+
+    private static final Set<String> WELL_KNOWN_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Object", "java.lang.String", "java.lang.Class",
+            "java.lang.Throwable", "java.lang.Error", "java.lang.Exception"
+    ));
+
+    private static final String NL = System.lineSeparator();
+
+    private static final String COMBINED_HEADER_START = "/* DO NOT EDIT THIS FILE - it is machine generated */" + NL
+            + "#include <jni.h>" + NL
+            + NL
+            + "#ifdef __cplusplus" + NL
+            + "extern \"C\" {" + NL
+            + "#endif" + NL
+            + NL;
+
+    private static final String COMBINED_HEADER_END = "#ifdef __cplusplus" + NL
+            + "}" + NL
+            + "#endif" + NL;
 
     private final PrintWriter errorHandle;
     private final Iterable<SearchPath> searchPaths;
+    private List<ClassFileSource> classFileSources = Collections.emptyList();
     private final Path outputDir;
+    // Shared by the generators returned by withErrorHandle, so the output directory is only checked once
+    private AtomicBoolean outputDirReady = new AtomicBoolean();
+    private final ClassHierarchy hierarchy;
+    private boolean incremental = false;
+    private boolean dependencyFiles = false;
+    private HeaderCache headerCache;
+    private Set<ClassName> reportedMissing = ConcurrentHashMap.newKeySet();
+    private Diagnostics diagnostics;
+    private Metrics metrics;
 
     public JNIGenerator(Path outputDir) {
         this(outputDir, null, null);
@@ -28,22 +71,218 @@ public class JNIGenerator {
     }
 
     public JNIGenerator(Path outputDir, Iterable<SearchPath> searchPaths, PrintWriter errorHandle) {
-        Objects.requireNonNull(outputDir);
+        this(outputDir, searchPaths, errorHandle, null);
+    }
 
+    /**
+     * @param outputDir the directory headers are written to by {@link #generate(ClassName)},
+     *                  may be {@code null} if headers are only rendered in memory
+     */
+    public JNIGenerator(Path outputDir, Iterable<SearchPath> searchPaths, PrintWriter errorHandle, ClassHierarchy hierarchy) {
         if (searchPaths == null) {
             searchPaths = Collections.singleton(RuntimeSearchPath.INSTANCE);
         }
         if (errorHandle == null) {
             errorHandle = NOOP_WRITER;
         }
+        if (hierarchy == null) {
+            hierarchy = new ClassHierarchy();
+        }
 
         this.errorHandle = errorHandle;
         this.searchPaths = searchPaths;
         this.outputDir = outputDir;
+        this.hierarchy = hierarchy;
+    }
+
+    /**
+     * Returns a generator that shares the configuration and class hierarchy of this generator,
+     * but reports errors to {@code errorHandle}.
+     */
+    public JNIGenerator withErrorHandle(PrintWriter errorHandle) {
+        JNIGenerator generator = new JNIGenerator(outputDir, searchPaths, errorHandle, hierarchy);
+        generator.incremental = incremental;
+        generator.dependencyFiles = dependencyFiles;
+        generator.headerCache = headerCache;
+        generator.reportedMissing = reportedMissing;
+        generator.metrics = metrics;
+        generator.classFileSources = classFileSources;
+        generator.outputDirReady = outputDirReady;
+        return generator;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * In incremental mode, headers are rendered in memory and an existing header is only replaced
+     * if its content differs, so that its modification time is kept for native build tools.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isDependencyFiles() {
+        return dependencyFiles;
     }
 
-    public void generate(ClassName name) {
+    /**
+     * Sets whether a dependency file in make syntax, which ninja also reads, is written next to each header,
+     * such as {@code p_A.d} next to {@code p_A.h}. It lists the class file of the class and of every class
+     * whose superclass chain decided how a reference type was mapped, or the archives containing them,
+     * and declares each of them as a phony target, so that deleting one does not break the build.
+     * Classes of the runtime image and classes supplied by {@linkplain #setClassFileSources(List) class file sources}
+     * are not files, and are not listed.
+     */
+    public void setDependencyFiles(boolean dependencyFiles) {
+        this.dependencyFiles = dependencyFiles;
+    }
+
+    public HeaderCache getHeaderCache() {
+        return headerCache;
+    }
+
+    /**
+     * Sets the persistent cache of rendered headers, or {@code null} to disable it.
+     */
+    public void setHeaderCache(HeaderCache headerCache) {
+        this.headerCache = headerCache;
+    }
+
+    public List<ClassFileSource> getClassFileSources() {
+        return classFileSources;
+    }
+
+    /**
+     * Sets the sources of class files supplied in memory, which are looked up in order before the search paths,
+     * so that classes compiled in memory take precedence over stale class files on disk.
+     * Classes looked up by name, and their superclasses, are read from them without touching the file system.
+     */
+    public void setClassFileSources(List<ClassFileSource> classFileSources) {
+        Objects.requireNonNull(classFileSources);
+        this.classFileSources = Collections.unmodifiableList(new ArrayList<>(classFileSources));
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics the work of this generator is measured into, or {@code null} to not measure it.
+     * Since metrics are not thread-safe, a generator with metrics must only be used by one thread at a time.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Status generate(ClassName name) {
         Objects.requireNonNull(name);
+        if (!prepareOutputDir()) {
+            return Status.FAILED;
+        }
+        Path op = outputDir.resolve(name.mangledName() + ".h");
+        Set<ClassName> dependencies = dependencyFiles ? new LinkedHashSet<>() : null;
+        try {
+            ByteBuffer header;
+            if (headerCache != null) {
+                byte[] bytes = renderCached(name, dependencies);
+                header = bytes == null ? null : ByteBuffer.wrap(bytes);
+            } else {
+                header = renderBytes(name, dependencies);
+            }
+            if (header == null) {
+                // An empty header is still written for a class that was not found, as javah did
+                write(op, ByteBuffer.allocate(0));
+                if (dependencyFiles) {
+                    Files.deleteIfExists(dependencyFileOf(op));
+                }
+                return Status.FAILED;
+            }
+            return writeWithDependencies(op, header, name, null, dependencies);
+        } catch (Exception ex) {
+            return failed(op, ex);
+        }
+    }
+
+    /**
+     * Generates the header of the class {@code name} from {@code classFile}, a class file already found
+     * by enumerating a search path, so it is not looked up again.
+     * Classes that declare neither native methods nor constants are skipped.
+     */
+    public Status generateScanned(ClassName name, Path classFile) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(classFile);
+        byte[] bytes = null;
+        ClassMetaInfo meta = null;
+        try {
+            ClassFileBuffer b = readScanned(name, classFile);
+            if (!declaresNativeMethodsOrConstants(b)) {
+                return Status.SKIPPED;
+            }
+            if (headerCache != null) {
+                // Only parsed on a cache miss; copied out of the thread's buffer,
+                // since checking the dependencies of a cached header reuses it
+                bytes = Arrays.copyOf(b.array(), b.length());
+            } else {
+                meta = parse(b.reader());
+            }
+        } catch (Exception ex) {
+            error("cannot read class file " + classFile, ex);
+            return Status.FAILED;
+        }
+
+        if (!prepareOutputDir()) {
+            return Status.FAILED;
+        }
+        Path op = outputDir.resolve(name.mangledName() + ".h");
+        Set<ClassName> dependencies = dependencyFiles ? new LinkedHashSet<>() : null;
+        try {
+            ByteBuffer header;
+            if (headerCache != null) {
+                header = ByteBuffer.wrap(renderCached(name, HeaderCache.keyOf(bytes), bytes, dependencies));
+            } else {
+                header = renderHeader(name, meta);
+                addDependencies(meta, dependencies);
+            }
+            return writeWithDependencies(op, header, name, classFile, dependencies);
+        } catch (Exception ex) {
+            return failed(op, ex);
+        }
+    }
+
+    /**
+     * Generates the header of the class {@code name} from {@code meta}, collected by a front end that does not
+     * read class files, such as an annotation processor. Reference types the front end has not recorded
+     * in the class hierarchy are resolved through the search paths.
+     */
+    public Status generate(ClassName name, ClassMetaInfo meta) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(meta);
+        if (!prepareOutputDir()) {
+            return Status.FAILED;
+        }
+        Path op = outputDir.resolve(name.mangledName() + ".h");
+        Set<ClassName> dependencies = dependencyFiles ? new LinkedHashSet<>() : null;
+        try {
+            ByteBuffer header = renderHeader(name, meta);
+            addDependencies(meta, dependencies);
+            return writeWithDependencies(op, header, name, null, dependencies);
+        } catch (Exception ex) {
+            return failed(op, ex);
+        }
+    }
+
+    /*
+     * Checks and creates the output directory the first time a header is written.
+     */
+    private boolean prepareOutputDir() {
+        if (outputDir == null) {
+            throw new IllegalStateException("No output directory");
+        }
+        if (outputDirReady.get()) {
+            return true;
+        }
         if (Files.exists(outputDir) && !Files.isDirectory(outputDir)) {
             throw new IllegalArgumentException(outputDir + "is not a directory");
         }
@@ -51,21 +290,291 @@ public class JNIGenerator {
             try {
                 Files.createDirectories(outputDir);
             } catch (IOException e) {
-                errorHandle.println("error: cannot create directory " + outputDir);
-                e.printStackTrace(errorHandle);
-                return;
+                error("cannot create directory " + outputDir, e);
+                return false;
             }
         }
-        Path op = outputDir.resolve(name.mangledName() + ".h");
-        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(op))) {
-            generateTo(name, out);
+        outputDirReady.set(true);
+        return true;
+    }
+
+    /*
+     * Publishes the header with a single write to a temporary file, renamed over op.
+     */
+    private Status write(Path op, ByteBuffer header) throws IOException {
+        Metrics.Phase previous = enter(Metrics.Phase.WRITE);
+        try {
+            if (incremental) {
+                if (!writeIfChanged(op, header)) {
+                    return Status.UNCHANGED;
+                }
+            } else {
+                writeAtomically(op, header);
+            }
+            count(Metrics.Counter.BYTES_WRITTEN, header.remaining());
+            return Status.WRITTEN;
+        } finally {
+            exit(previous);
+        }
+    }
+
+    /*
+     * Writes the header, then its dependency file if dependencies is not null. The header is written first,
+     * since the dependency file is rendered into the same buffer.
+     *
+     * @param classFile the class file the class was read from, or null if it was looked up by name
+     */
+    private Status writeWithDependencies(Path op, ByteBuffer header, ClassName name, Path classFile,
+                                         Set<ClassName> dependencies) throws IOException {
+        Status status = write(op, header);
+        if (dependencies == null) {
+            return status;
+        }
+
+        Set<Path> inputs = new LinkedHashSet<>();
+        addInput(classFile != null ? classFile : locate(name), inputs);
+        for (ClassName dependency : dependencies) {
+            addInput(locate(dependency), inputs);
+        }
+
+        Metrics.Phase previous = enter(Metrics.Phase.WRITE);
+        try {
+            StringBuilder out = HeaderBuffer.start();
+            out.append(escapeMakePath(op.toString())).append(':');
+            for (Path input : inputs) {
+                out.append(" \\\n ").append(escapeMakePath(input.toString()));
+            }
+            out.append('\n');
+            for (Path input : inputs) {
+                out.append('\n').append(escapeMakePath(input.toString())).append(":\n");
+            }
+            ByteBuffer content = HeaderBuffer.encode();
+            Path dependencyFile = dependencyFileOf(op);
+            if (!incremental) {
+                writeAtomically(dependencyFile, content);
+                count(Metrics.Counter.BYTES_WRITTEN, content.remaining());
+            } else if (writeIfChanged(dependencyFile, content)) {
+                count(Metrics.Counter.BYTES_WRITTEN, content.remaining());
+            }
+        } finally {
+            exit(previous);
+        }
+        return status;
+    }
+
+    private static Path dependencyFileOf(Path header) {
+        String name = header.getFileName().toString();
+        return header.resolveSibling(name.substring(0, name.length() - ".h".length()) + ".d");
+    }
+
+    /*
+     * Adds the file that contains the class file f, which is either f itself or an archive.
+     */
+    private static void addInput(Path f, Set<Path> inputs) {
+        if (f == null) {
+            return;
+        }
+        Path archive = ArchivePool.archiveOf(f);
+        if (archive != null) {
+            f = archive;
+        } else if (f.getFileSystem() != FileSystems.getDefault()) {
+            // In the runtime image
+            return;
+        }
+        inputs.add(f.toAbsolutePath().normalize());
+    }
+
+    /*
+     * Returns the class file of name in the search paths, or null if it is not found or is supplied
+     * by a class file source, which takes precedence over the search paths.
+     */
+    private Path locate(ClassName name) throws IOException {
+        if (!classFileSources.isEmpty() && searchSources(name) != null) {
+            return null;
+        }
+        return search(name);
+    }
+
+    /**
+     * Renders the header of a class in memory, collecting the diagnostics into the result
+     * instead of printing them.
+     */
+    public GenerationResult render(ClassName name) {
+        Objects.requireNonNull(name);
+        JNIGenerator generator = withErrorHandle(errorHandle);
+        generator.diagnostics = new Diagnostics();
+        generator.reportedMissing = new HashSet<>();
+
+        byte[] header = null;
+        try {
+            if (headerCache != null) {
+                header = generator.renderCached(name, null);
+            } else {
+                ByteBuffer buffer = generator.renderBytes(name, null);
+                header = buffer == null ? null : toArray(buffer);
+            }
         } catch (Exception ex) {
-            errorHandle.println("error: cannot write to " + op);
-            ex.printStackTrace(errorHandle);
-            try {
-                Files.deleteIfExists(op);
-            } catch (IOException ignored) {
+            generator.error("cannot generate header for " + name, ex);
+        }
+
+        Diagnostics d = generator.diagnostics;
+        return new GenerationResult(name, name.mangledName() + ".h", d.errors.isEmpty() ? header : null,
+                d.warnings, d.errors, d.exception);
+    }
+
+    /**
+     * Renders the headers of {@code names} in memory, in order.
+     *
+     * @see #render(ClassName)
+     */
+    public List<GenerationResult> renderAll(Collection<ClassName> names) {
+        Objects.requireNonNull(names);
+        List<GenerationResult> results = new ArrayList<>(names.size());
+        for (ClassName name : names) {
+            results.add(render(name));
+        }
+        return results;
+    }
+
+    private Status failed(Path op, Exception ex) {
+        error("cannot write to " + op, ex);
+        try {
+            Files.deleteIfExists(op);
+            if (dependencyFiles) {
+                Files.deleteIfExists(dependencyFileOf(op));
             }
+        } catch (IOException ignored) {
+        }
+        return Status.FAILED;
+    }
+
+    /*
+     * Returns the header in the buffer of the calling thread, or null if the class cannot be found.
+     */
+    private ByteBuffer renderBytes(ClassName name, Set<ClassName> dependencies) throws IOException {
+        ClassMetaInfo meta = load(name);
+        if (meta == null) {
+            return null;
+        }
+        ByteBuffer header = renderHeader(name, meta);
+        addDependencies(meta, dependencies);
+        return header;
+    }
+
+    /*
+     * Adds the dependencies of meta to dependencies, unless it is null.
+     */
+    private void addDependencies(ClassMetaInfo meta, Set<ClassName> dependencies) {
+        if (dependencies != null) {
+            dependencies.addAll(dependenciesOf(meta));
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.arrayOffset() + buffer.limit());
+    }
+
+    /*
+     * Returns null if the class cannot be found.
+     * A cache hit only reads and hashes the class file and the classes its jthrowable mapping depended on,
+     * without parsing any of them.
+     */
+    private byte[] renderCached(ClassName name, Set<ClassName> dependencies) throws IOException {
+        ClassFileBuffer b;
+        try {
+            b = find(name);
+        } catch (IOException e) {
+            error("cannot open class file of " + name, e);
+            throw e;
+        }
+        if (b == null) {
+            error("class " + name + " not found", null);
+            return null;
+        }
+        // Copied out of the thread's buffer, since checking the dependencies of a cached header reuses it
+        byte[] bytes = Arrays.copyOf(b.array(), b.length());
+
+        return renderCached(name, HeaderCache.keyOf(bytes), bytes, dependencies);
+    }
+
+    /*
+     * The class file is only parsed on a cache miss. The dependencies of the header are added to dependencies
+     * unless it is null; on a cache hit, they are the dependencies the cached header was checked against.
+     */
+    private byte[] renderCached(ClassName name, String key, byte[] bytes, Set<ClassName> dependencies) {
+        byte[] header;
+        List<ClassName> checked = dependencies == null ? null : new ArrayList<>();
+        Metrics.Phase previous = enter(Metrics.Phase.HEADER_CACHE);
+        try {
+            header = headerCache.get(key, checked == null ? this::digestOf : dependency -> {
+                checked.add(dependency);
+                return digestOf(dependency);
+            });
+        } finally {
+            exit(previous);
+        }
+        if (header != null) {
+            count(Metrics.Counter.HEADER_CACHE_HITS, 1);
+            if (dependencies != null) {
+                dependencies.addAll(checked);
+            }
+            return header;
+        }
+        count(Metrics.Counter.HEADER_CACHE_MISSES, 1);
+
+        ClassMetaInfo meta = parse(new ClassReader(bytes));
+        header = toArray(renderHeader(name, meta));
+
+        Map<ClassName, String> digests = new LinkedHashMap<>();
+        for (ClassName dependency : dependenciesOf(meta)) {
+            digests.put(dependency, digestOf(dependency));
+        }
+        if (dependencies != null) {
+            dependencies.addAll(digests.keySet());
+        }
+        previous = enter(Metrics.Phase.HEADER_CACHE);
+        try {
+            headerCache.put(key, digests, header);
+        } catch (IOException e) {
+            warning("cannot write to header cache " + headerCache.getDirectory());
+        } finally {
+            exit(previous);
+        }
+        return header;
+    }
+
+    private ClassMetaInfo parse(ClassReader reader) {
+        Metrics.Phase previous = enter(Metrics.Phase.PARSE);
+        try {
+            ClassMetaInfo meta = new ClassMetaInfo();
+            reader.accept(meta, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return meta;
+        } finally {
+            exit(previous);
+        }
+    }
+
+    private boolean declaresNativeMethodsOrConstants(ClassFileBuffer b) {
+        Metrics.Phase previous = enter(Metrics.Phase.PARSE);
+        try {
+            return ClassFileScanner.hasNativeMethodsOrConstants(b.array(), 0, b.length());
+        } finally {
+            exit(previous);
+        }
+    }
+
+    /*
+     * Renders and encodes the header into the buffers of the calling thread, which are reused
+     * by the next header rendered on this thread.
+     */
+    private ByteBuffer renderHeader(ClassName name, ClassMetaInfo meta) {
+        Metrics.Phase previous = enter(Metrics.Phase.RENDER);
+        try {
+            writeHeader(name, meta, HeaderBuffer.start());
+            return HeaderBuffer.encode();
+        } finally {
+            exit(previous);
         }
     }
 
@@ -73,149 +582,257 @@ public class JNIGenerator {
         Objects.requireNonNull(name);
         Objects.requireNonNull(writer);
 
-        ClassMetaInfo meta = new ClassMetaInfo();
-        {
-            Path f = search(name);
-            if (f == null) {
-                errorHandle.println("Not found class " + name);
-                return;
-            }
+        ClassMetaInfo meta = load(name);
+        if (meta == null) {
+            return;
+        }
+        writeHeader(name, meta, HeaderBuffer.start());
+        HeaderBuffer.writeTo(writer);
+    }
 
-            try (InputStream in = Files.newInputStream(f)) {
-                ClassReader reader = new ClassReader(in);
-                reader.accept(meta, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-            } catch (IOException e) {
-                errorHandle.println("error: cannot open class file of " + name);
-                e.printStackTrace(errorHandle);
-                errorHandle.flush();
-                throw e;
+    /**
+     * Writes the declarations of a class, guarded by its own include guard, as a fragment of a header
+     * that contains several classes, between {@link #writeCombinedHeaderStart(Writer)}
+     * and {@link #writeCombinedHeaderEnd(Writer)}.
+     *
+     * @param classFile the class file of the class if it was found by enumerating a search path,
+     *                  in which case it is not looked up again, and is skipped if it declares
+     *                  neither native methods nor constants; or {@code null}
+     */
+    public Status generateFragmentTo(ClassName name, Path classFile, Writer writer) throws IOException {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(writer);
+
+        ClassMetaInfo meta;
+        if (classFile == null) {
+            meta = load(name);
+            if (meta == null) {
+                return Status.FAILED;
+            }
+        } else {
+            try {
+                ClassFileBuffer b = readScanned(name, classFile);
+                if (!declaresNativeMethodsOrConstants(b)) {
+                    return Status.SKIPPED;
+                }
+                meta = parse(b.reader());
+            } catch (Exception ex) {
+                error("cannot read class file " + classFile, ex);
+                return Status.FAILED;
             }
         }
 
+        Metrics.Phase previous = enter(Metrics.Phase.RENDER);
+        try {
+            StringBuilder out = HeaderBuffer.start();
+            out.append("/* Header for class ").append(name.mangledName()).append(" */").append(NL);
+            out.append(NL);
+            out.append("#ifndef _Included_").append(name.mangledName()).append(NL);
+            out.append("#define _Included_").append(name.mangledName()).append(NL);
+            writeDeclarations(name, meta, out);
+            out.append("#endif").append(NL);
+            out.append(NL);
+            HeaderBuffer.writeTo(writer);
+            return Status.WRITTEN;
+        } finally {
+            exit(previous);
+        }
+    }
+
+    public static void writeCombinedHeaderStart(Writer writer) {
+        PrintWriter out = writer instanceof PrintWriter ? (PrintWriter) writer : new PrintWriter(writer);
+        out.write(COMBINED_HEADER_START);
+        out.flush();
+    }
+
+    public static void writeCombinedHeaderEnd(Writer writer) {
         PrintWriter out = writer instanceof PrintWriter ? (PrintWriter) writer : new PrintWriter(writer);
-        out.println("/* DO NOT EDIT THIS FILE - it is machine generated */");
-        out.println("#include <jni.h>");
-        out.println("/* Header for class " + name.mangledName() + " */");
-        out.println();
-        out.println("#ifndef _Included_" + name.mangledName());
-        out.println("#define _Included_" + name.mangledName());
-        out.println("#ifdef __cplusplus");
-        out.println("extern \"C\" {");
-        out.println("#endif");
+        out.write(COMBINED_HEADER_END);
+        out.flush();
+    }
 
+    /*
+     * Returns null if the class cannot be found.
+     */
+    private ClassMetaInfo load(ClassName name) throws IOException {
+        ClassFileBuffer b;
+        try {
+            b = find(name);
+        } catch (IOException e) {
+            error("cannot open class file of " + name, e);
+            throw e;
+        }
+        if (b == null) {
+            error("class " + name + " not found", null);
+            return null;
+        }
+        return parse(b.reader());
+    }
+
+    private void writeHeader(ClassName name, ClassMetaInfo meta, StringBuilder out) {
+        out.append("/* DO NOT EDIT THIS FILE - it is machine generated */").append(NL);
+        out.append("#include <jni.h>").append(NL);
+        out.append("/* Header for class ").append(name.mangledName()).append(" */").append(NL);
+        out.append(NL);
+        out.append("#ifndef _Included_").append(name.mangledName()).append(NL);
+        out.append("#define _Included_").append(name.mangledName()).append(NL);
+        out.append("#ifdef __cplusplus").append(NL);
+        out.append("extern \"C\" {").append(NL);
+        out.append("#endif").append(NL);
+        writeDeclarations(name, meta, out);
+        out.append("#ifdef __cplusplus").append(NL);
+        out.append("}").append(NL);
+        out.append("#endif").append(NL);
+        out.append("#endif").append(NL);
+    }
+
+    private void writeDeclarations(ClassName name, ClassMetaInfo meta, StringBuilder out) {
         for (Constant constant : meta.constants) {
             String cn = name.mangledName() + "_" + constant.mangledName();
-            out.println("#undef " + cn);
-            out.println("#define " + cn + " " + constant.valueToString());
+            out.append("#undef ").append(cn).append(NL);
+            out.append("#define ").append(cn).append(' ').append(constant.valueToString()).append(NL);
         }
 
         for (NativeMethod method : meta.methods) {
-            String ret = mapTypeToNative(method.type().getReturnType());
-            List<String> args = new ArrayList<>();
-            args.add("JNIEnv *");
-            args.add(method.isStatic() ? "jclass" : "jobject");
-            args.addAll(Arrays.asList(mapArgsTypeToNative(method.type())));
-
-            String methodName =
-                    "Java_" + name.mangledName() + "_" + (meta.isOverloadMethod(method) ? method.longMangledName() : method.mangledName());
+            MethodDescriptor descriptor = method.descriptor();
+            out.append("/*").append(NL);
+            out.append(" * Class:      ").append(name.mangledName()).append(NL);
+            out.append(" * Method:     ").append(method.mangledName()).append(NL);
+            out.append(" * Signature:  ").append(escape(descriptor.descriptor())).append(NL);
+            out.append(" */").append(NL);
+            out.append("JNIEXPORT ").append(mapTypeToNative(descriptor, descriptor.argumentCount()))
+                    .append(" JNICALL Java_").append(name.mangledName()).append('_')
+                    .append(meta.isOverloadMethod(method) ? method.longMangledName() : method.mangledName()).append(NL);
+            out.append("  (JNIEnv *, ").append(method.isStatic() ? "jclass" : "jobject");
+            for (int i = 0; i < descriptor.argumentCount(); i++) {
+                out.append(", ").append(mapTypeToNative(descriptor, i));
+            }
+            out.append(");").append(NL);
+            out.append(NL);
+        }
+    }
 
-            out.println("/*");
-            out.println(" * Class:      " + name.mangledName());
-            out.println(" * Method:     " + method.mangledName());
-            out.println(" * Signature:  " + escape(method.type().toString()));
-            out.println(" */");
-            out.println("JNIEXPORT " + ret + " JNICALL " + methodName);
-            out.println("  (" + String.join(", ", args) + ");");
-            out.println();
+    /*
+     * Returns the class file of name read into the buffer of the calling thread, or null if it is not found.
+     */
+    private ClassFileBuffer find(ClassName name) throws IOException {
+        if (!classFileSources.isEmpty()) {
+            ByteBuffer content = searchSources(name);
+            if (content != null) {
+                Metrics.Phase previous = enter(Metrics.Phase.READ);
+                try {
+                    ClassFileBuffer b = ClassFileBuffer.read(content);
+                    count(Metrics.Counter.BYTES_READ, b.length());
+                    return b;
+                } finally {
+                    exit(previous);
+                }
+            }
+        }
+        for (int attempt = 1; ; attempt++) {
+            Path f = search(name);
+            if (f == null) {
+                return null;
+            }
+            try {
+                return read(f);
+            } catch (ClosedFileSystemException e) {
+                // Another thread closed the archive after the lookup; looking the class up again reopens it
+                if (attempt == ArchivePool.MAX_REOPEN_ATTEMPTS) {
+                    throw new IOException("archive of " + f + " was closed while being read", e);
+                }
+            }
         }
+    }
 
-        out.println("#ifdef __cplusplus");
-        out.println("}");
-        out.println("#endif");
-        out.println("#endif");
+    /*
+     * Reads a class file found by enumerating a search path. If another thread closed its archive since then,
+     * the class is looked up again by name, which reopens the archive.
+     */
+    private ClassFileBuffer readScanned(ClassName name, Path classFile) throws IOException {
+        try {
+            return read(classFile);
+        } catch (ClosedFileSystemException e) {
+            ClassFileBuffer b = find(name);
+            if (b == null) {
+                throw new NoSuchFileException(classFile.toString());
+            }
+            return b;
+        }
+    }
 
+    private ByteBuffer searchSources(ClassName name) throws IOException {
+        Metrics.Phase previous = enter(Metrics.Phase.SEARCH);
+        try {
+            for (ClassFileSource source : classFileSources) {
+                count(Metrics.Counter.PROBES, 1);
+                ByteBuffer content = source.read(name);
+                if (content != null) {
+                    return content;
+                }
+            }
+            return null;
+        } finally {
+            exit(previous);
+        }
     }
 
     private Path search(ClassName name) {
-        return SearchPath.searchFrom(searchPaths, name);
-    }
-
-    private String mapTypeToNative(Type type) {
-        Objects.requireNonNull(type);
-        String tpe = type.toString();
-        if (tpe.startsWith("(")) {
-            throw new IllegalArgumentException();
-        }
-
-        switch (tpe) {
-            case "Z":
-                return "jboolean";
-            case "B":
-                return "jbyte";
-            case "C":
-                return "jchar";
-            case "S":
-                return "jshort";
-            case "I":
-                return "jint";
-            case "J":
-                return "jlong";
-            case "F":
-                return "jfloat";
-            case "D":
-                return "jdouble";
-            case "V":
-                return "void";
-            case "Ljava/lang/Class;":
-                return "jclass";
-            case "Ljava/lang/String;":
-                return "jstring";
-            case "Ljava/lang/Throwable;":
-                return "jthrowable";
-            case "[Z":
-                return "jbooleanArray";
-            case "[B":
-                return "jbyteArray";
-            case "[C":
-                return "jcharArray";
-            case "[S":
-                return "jshortArray";
-            case "[I":
-                return "jintArray";
-            case "[J":
-                return "jlongArray";
-            case "[F":
-                return "jfloatArray";
-            case "[D":
-                return "jdoubleArray";
-        }
-
-        if (tpe.startsWith("[")) {
-            return "jobjectArray";
-        }
-
-        if (tpe.startsWith("L") && tpe.endsWith(";")) {
-            ClassName n = ClassName.ofInternalName(tpe.substring(1, tpe.length() - 1));
-            if (isThrowable(n)) {
-                return "jthrowable";
-            } else {
-                return "jobject";
+        if (metrics == null) {
+            return SearchPath.searchFrom(searchPaths, name);
+        }
+        Metrics.Phase previous = metrics.enter(Metrics.Phase.SEARCH);
+        try {
+            metrics.increment(Metrics.Counter.LOOKUPS);
+            for (SearchPath searchPath : searchPaths) {
+                if (searchPath == null) {
+                    continue;
+                }
+                metrics.increment(Metrics.Counter.PROBES);
+                Path p = searchPath.search(name);
+                if (p != null) {
+                    return p;
+                }
             }
+            return null;
+        } finally {
+            metrics.exit(previous);
+        }
+    }
+
+    private ClassFileBuffer read(Path f) throws IOException {
+        Metrics.Phase previous = enter(Metrics.Phase.READ);
+        try {
+            ClassFileBuffer b = ClassFileBuffer.read(f);
+            count(Metrics.Counter.BYTES_READ, b.length());
+            return b;
+        } finally {
+            exit(previous);
         }
-        throw new IllegalArgumentException("Unknown type: " + type);
     }
 
-    private String[] mapArgsTypeToNative(Type methodType) {
-        Objects.requireNonNull(methodType);
-        if (!METHOD_TYPE_PATTERN.matcher(methodType.toString()).matches()) {
-            throw new IllegalArgumentException(methodType + " is not a method type");
+    private Metrics.Phase enter(Metrics.Phase phase) {
+        return metrics == null ? null : metrics.enter(phase);
+    }
+
+    private void exit(Metrics.Phase previous) {
+        if (metrics != null) {
+            metrics.exit(previous);
         }
-        Type[] args = methodType.getArgumentTypes();
-        String[] ans = new String[args.length];
-        for (int i = 0; i < args.length; i++) {
-            ans[i] = mapTypeToNative(args[i]);
+    }
+
+    private void count(Metrics.Counter counter, long value) {
+        if (metrics != null) {
+            metrics.add(counter, value);
         }
-        return ans;
+    }
+
+    private String mapTypeToNative(MethodDescriptor descriptor, int i) {
+        String type = descriptor.nativeType(i);
+        if (type != null) {
+            return type;
+        }
+        return isThrowable(descriptor.className(i)) ? "jthrowable" : "jobject";
     }
 
     private boolean isThrowable(ClassName name) {
@@ -231,11 +848,140 @@ public class JNIGenerator {
                 return false;
         }
 
-        try (InputStream in = Files.newInputStream(search(name))) {
-            return isThrowable(superClassOf(new ClassReader(in)));
-        } catch (Exception ignored) {
-            errorHandle.println("warning: class " + name + " not found");
+        Boolean throwable = hierarchy.isThrowable(name);
+        if (throwable != null) {
+            count(Metrics.Counter.HIERARCHY_CACHE_HITS, 1);
+            return throwable;
+        }
+        count(Metrics.Counter.HIERARCHY_CACHE_MISSES, 1);
+        if (hierarchy.isMissing(name)) {
+            missingClass(name);
             return false;
         }
+
+        Optional<ClassName> superName = resolveSuperClass(name);
+        if (superName == null) {
+            return false;
+        }
+
+        throwable = isThrowable(superName.orElse(null));
+        hierarchy.putThrowable(name, throwable);
+        return throwable;
+    }
+
+    /*
+     * Returns null if the class cannot be found.
+     */
+    private Optional<ClassName> resolveSuperClass(ClassName name) {
+        Optional<ClassName> superName = hierarchy.superClassOf(name);
+        if (superName != null) {
+            return superName;
+        }
+        if (hierarchy.isMissing(name)) {
+            missingClass(name);
+            return null;
+        }
+
+        ClassFileBuffer b;
+        try {
+            b = find(name);
+        } catch (IOException e) {
+            b = null;
+        }
+        if (b == null) {
+            missingClass(name);
+            return null;
+        }
+        try {
+            Metrics.Phase previous = enter(Metrics.Phase.RESOLVE);
+            try {
+                superName = Optional.ofNullable(superClassOf(b.reader()));
+            } finally {
+                exit(previous);
+            }
+        } catch (Exception ignored) {
+            missingClass(name);
+            return null;
+        }
+        hierarchy.putSuperClass(name, superName.orElse(null));
+        return superName;
+    }
+
+    /*
+     * Returns the classes whose superclass chains decide how the reference types of the native methods are mapped.
+     */
+    private Set<ClassName> dependenciesOf(ClassMetaInfo meta) {
+        Set<ClassName> result = new LinkedHashSet<>();
+        for (NativeMethod method : meta.methods) {
+            MethodDescriptor descriptor = method.descriptor();
+            addDependencies(descriptor.className(descriptor.argumentCount()), result);
+            for (int i = 0; i < descriptor.argumentCount(); i++) {
+                addDependencies(descriptor.className(i), result);
+            }
+        }
+        return result;
+    }
+
+    private void addDependencies(ClassName name, Set<ClassName> result) {
+        while (name != null && !WELL_KNOWN_CLASSES.contains(name.className()) && result.add(name)) {
+            Optional<ClassName> superName = resolveSuperClass(name);
+            if (superName == null) {
+                break;
+            }
+            name = superName.orElse(null);
+        }
+    }
+
+    private String digestOf(ClassName name) {
+        String digest = hierarchy.digestOf(name);
+        if (digest == null) {
+            try {
+                ClassFileBuffer b = find(name);
+                digest = b == null ? "" : HeaderCache.digestOf(b.array(), 0, b.length());
+            } catch (IOException e) {
+                digest = "";
+            }
+            if (digest.isEmpty()) {
+                missingClass(name);
+            }
+            hierarchy.putDigest(name, digest);
+        }
+        return digest;
+    }
+
+    private void warning(String message) {
+        if (diagnostics != null) {
+            diagnostics.warnings.add(message);
+        } else {
+            errorHandle.println("warning: " + message);
+        }
+    }
+
+    private void error(String message, Throwable ex) {
+        if (diagnostics != null) {
+            diagnostics.errors.add(message);
+            if (diagnostics.exception == null) {
+                diagnostics.exception = ex;
+            }
+        } else {
+            errorHandle.println("error: " + message);
+            if (ex != null) {
+                ex.printStackTrace(errorHandle);
+                errorHandle.flush();
+            }
+        }
+    }
+
+    private static final class Diagnostics {
+        final List<String> warnings = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        Throwable exception;
+    }
+
+    private void missingClass(ClassName name) {
+        hierarchy.markMissing(name);
+        if (reportedMissing.add(name)) {
+            warning("class " + name + " not found");
+        }
     }
 }
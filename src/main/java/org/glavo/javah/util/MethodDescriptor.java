@@ -0,0 +1,236 @@
+package org.glavo.javah.util;
+
+import org.glavo.javah.ClassName;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A method descriptor validated and split into its argument and return types in a single pass.
+ * <p>
+ * Each type is mapped to its JNI C type, except for class types other than {@code Class}, {@code String}
+ * and {@code Throwable}, which map to {@code jthrowable} or {@code jobject} depending on the class hierarchy,
+ * so only their class name is kept. Descriptors are cached, since a few descriptors account
+ * for most native methods.
+ */
+final class MethodDescriptor {
+    private static final int MAX_CACHED_DESCRIPTORS = 4096;
+    private static final ConcurrentHashMap<String, MethodDescriptor> CACHE = new ConcurrentHashMap<>();
+
+    private final String descriptor;
+    private final String mangledArguments;
+    // Indexed by argument, the return type comes last
+    private final String[] nativeTypes;
+    private final ClassName[] classNames;
+
+    static MethodDescriptor of(String descriptor) {
+        MethodDescriptor d = CACHE.get(descriptor);
+        if (d == null) {
+            d = parse(descriptor);
+            if (CACHE.size() >= MAX_CACHED_DESCRIPTORS) {
+                CACHE.clear();
+            }
+            CACHE.putIfAbsent(descriptor, d);
+        }
+        return d;
+    }
+
+    private MethodDescriptor(String descriptor, String mangledArguments, String[] nativeTypes, ClassName[] classNames) {
+        this.descriptor = descriptor;
+        this.mangledArguments = mangledArguments;
+        this.nativeTypes = nativeTypes;
+        this.classNames = classNames;
+    }
+
+    private static MethodDescriptor parse(String descriptor) {
+        int len = descriptor.length();
+        if (len < 3 || descriptor.charAt(0) != '(') {
+            throw notMethodType(descriptor);
+        }
+
+        int count = 0;
+        int[] ends = new int[8];
+        int p = 1;
+        while (p < len && descriptor.charAt(p) != ')') {
+            p = skipType(descriptor, p, false);
+            if (count + 1 == ends.length) {
+                int[] newEnds = new int[ends.length * 2];
+                System.arraycopy(ends, 0, newEnds, 0, ends.length);
+                ends = newEnds;
+            }
+            ends[count++] = p;
+        }
+        if (p >= len) {
+            throw notMethodType(descriptor);
+        }
+        int argumentsEnd = p;
+        if (skipType(descriptor, argumentsEnd + 1, true) != len) {
+            throw notMethodType(descriptor);
+        }
+        ends[count] = len;
+
+        String[] nativeTypes = new String[count + 1];
+        ClassName[] classNames = new ClassName[count + 1];
+        int start = 1;
+        for (int i = 0; i <= count; i++) {
+            if (i == count) {
+                start = argumentsEnd + 1;
+            }
+            mapType(descriptor, start, ends[i], i, nativeTypes, classNames);
+            start = ends[i];
+        }
+        return new MethodDescriptor(descriptor, Utils.mangleName(descriptor.substring(1, argumentsEnd)),
+                nativeTypes, classNames);
+    }
+
+    /*
+     * Returns the end of the type starting at start.
+     */
+    private static int skipType(String descriptor, int start, boolean isReturnType) {
+        int len = descriptor.length();
+        int p = start;
+        while (p < len && descriptor.charAt(p) == '[') {
+            p++;
+        }
+        if (p >= len) {
+            throw notMethodType(descriptor);
+        }
+        switch (descriptor.charAt(p)) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+                return p + 1;
+            case 'V':
+                if (isReturnType && p == start) {
+                    return p + 1;
+                }
+                throw notMethodType(descriptor);
+            case 'L':
+                int segmentStart = ++p;
+                for (; p < len; p++) {
+                    char ch = descriptor.charAt(p);
+                    if (ch == ';' || ch == '/') {
+                        if (p == segmentStart) {
+                            throw notMethodType(descriptor);
+                        }
+                        if (ch == ';') {
+                            return p + 1;
+                        }
+                        segmentStart = p + 1;
+                    } else if (ch == '.' || ch == '[') {
+                        throw notMethodType(descriptor);
+                    }
+                }
+                throw notMethodType(descriptor);
+            default:
+                throw notMethodType(descriptor);
+        }
+    }
+
+    private static void mapType(String descriptor, int start, int end, int i, String[] nativeTypes, ClassName[] classNames) {
+        char first = descriptor.charAt(start);
+        if (first == '[') {
+            nativeTypes[i] = end - start == 2 ? arrayType(descriptor.charAt(start + 1)) : "jobjectArray";
+            return;
+        }
+        if (first != 'L') {
+            nativeTypes[i] = primitiveType(first);
+            return;
+        }
+        String internalName = descriptor.substring(start + 1, end - 1);
+        switch (internalName) {
+            case "java/lang/Class":
+                nativeTypes[i] = "jclass";
+                break;
+            case "java/lang/String":
+                nativeTypes[i] = "jstring";
+                break;
+            case "java/lang/Throwable":
+                nativeTypes[i] = "jthrowable";
+                break;
+            default:
+                classNames[i] = ClassName.ofInternalName(internalName);
+        }
+    }
+
+    private static String primitiveType(char ch) {
+        switch (ch) {
+            case 'Z':
+                return "jboolean";
+            case 'B':
+                return "jbyte";
+            case 'C':
+                return "jchar";
+            case 'S':
+                return "jshort";
+            case 'I':
+                return "jint";
+            case 'J':
+                return "jlong";
+            case 'F':
+                return "jfloat";
+            case 'D':
+                return "jdouble";
+            default:
+                return "void";
+        }
+    }
+
+    private static String arrayType(char ch) {
+        switch (ch) {
+            case 'Z':
+                return "jbooleanArray";
+            case 'B':
+                return "jbyteArray";
+            case 'C':
+                return "jcharArray";
+            case 'S':
+                return "jshortArray";
+            case 'I':
+                return "jintArray";
+            case 'J':
+                return "jlongArray";
+            case 'F':
+                return "jfloatArray";
+            case 'D':
+                return "jdoubleArray";
+            default:
+                return "jobjectArray";
+        }
+    }
+
+    private static IllegalArgumentException notMethodType(String descriptor) {
+        return new IllegalArgumentException(String.format("\"%s\" is not a method type", descriptor));
+    }
+
+    String descriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Returns the mangled argument types, the suffix of the names of overloaded native methods.
+     */
+    String mangledArguments() {
+        return mangledArguments;
+    }
+
+    int argumentCount() {
+        return nativeTypes.length - 1;
+    }
+
+    /**
+     * Returns the JNI type of the argument {@code i}, or of the return type if {@code i} is {@link #argumentCount()},
+     * or {@code null} if it depends on whether {@link #className(int)} is a {@code Throwable}.
+     */
+    String nativeType(int i) {
+        return nativeTypes[i];
+    }
+
+    ClassName className(int i) {
+        return classNames[i];
+    }
+}
@@ -0,0 +1,233 @@
+package org.glavo.javah.util;
+
+import org.glavo.javah.ClassName;
+
+import java.io.PrintWriter;
+import java.util.Objects;
+
+/**
+ * Timers and counters of header generation.
+ * <p>
+ * Time is attributed to one phase at a time: entering a phase while another is running pauses the outer phase
+ * until the inner one is exited, so the phase times of a class add up to the time spent generating it.
+ * A metrics object is not thread-safe. Each class is measured into its own object, which is then added
+ * to the metrics of the whole run.
+ */
+public final class Metrics {
+    public enum Phase {
+        /**
+         * Looking classes up in the search paths, including building their indexes and opening archives.
+         */
+        SEARCH("search"),
+        READ("read"),
+        /**
+         * Parsing the class files of the generated classes.
+         */
+        PARSE("parse"),
+        /**
+         * Resolving the superclasses of reference types, to map them to {@code jthrowable} or {@code jobject}.
+         */
+        RESOLVE("resolve"),
+        HEADER_CACHE("header cache"),
+        RENDER("render"),
+        WRITE("write");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String displayName() {
+            return displayName;
+        }
+    }
+
+    public enum Counter {
+        /**
+         * Classes looked up in the search paths.
+         */
+        LOOKUPS,
+        /**
+         * Search paths asked for a class, which is at least one per lookup.
+         */
+        PROBES,
+        ARCHIVES_OPENED,
+        HEADER_CACHE_HITS,
+        HEADER_CACHE_MISSES,
+        HIERARCHY_CACHE_HITS,
+        HIERARCHY_CACHE_MISSES,
+        BYTES_READ,
+        BYTES_WRITTEN,
+        CLASSES_WRITTEN,
+        CLASSES_UNCHANGED,
+        CLASSES_SKIPPED,
+        CLASSES_FAILED
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private final long[] phaseNanos = new long[PHASES.length];
+    private final long[] phaseCounts = new long[PHASES.length];
+    private final long[] counters = new long[COUNTERS.length];
+    private long totalNanos;
+
+    private Phase current;
+    private long since;
+
+    /**
+     * Starts timing {@code phase}, pausing the current phase.
+     *
+     * @return the paused phase, to be passed to {@link #exit(Phase)}
+     */
+    public Phase enter(Phase phase) {
+        long now = System.nanoTime();
+        Phase previous = current;
+        if (previous != null) {
+            phaseNanos[previous.ordinal()] += now - since;
+        }
+        phaseCounts[phase.ordinal()]++;
+        current = phase;
+        since = now;
+        return previous;
+    }
+
+    /**
+     * Stops timing the current phase, and resumes {@code previous}.
+     */
+    public void exit(Phase previous) {
+        long now = System.nanoTime();
+        if (current != null) {
+            phaseNanos[current.ordinal()] += now - since;
+        }
+        current = previous;
+        since = now;
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()]++;
+    }
+
+    public void add(Counter counter, long value) {
+        counters[counter.ordinal()] += value;
+    }
+
+    /**
+     * Adds the phase times and counters of {@code other} to this object.
+     */
+    public void add(Metrics other) {
+        Objects.requireNonNull(other);
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseNanos[i] += other.phaseNanos[i];
+            phaseCounts[i] += other.phaseCounts[i];
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            counters[i] += other.counters[i];
+        }
+    }
+
+    /**
+     * Counts a generated class in the counter matching {@code status}.
+     */
+    public void count(JNIGenerator.Status status) {
+        switch (status) {
+            case WRITTEN:
+                increment(Counter.CLASSES_WRITTEN);
+                break;
+            case UNCHANGED:
+                increment(Counter.CLASSES_UNCHANGED);
+                break;
+            case SKIPPED:
+                increment(Counter.CLASSES_SKIPPED);
+                break;
+            case FAILED:
+                increment(Counter.CLASSES_FAILED);
+                break;
+        }
+    }
+
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * Returns the number of times {@code phase} was entered.
+     */
+    public long getCount(Phase phase) {
+        return phaseCounts[phase.ordinal()];
+    }
+
+    public long get(Counter counter) {
+        return counters[counter.ordinal()];
+    }
+
+    /**
+     * Returns the wall time of the run, which is less than the sum of the phase times
+     * if classes were generated in parallel.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public void setTotalNanos(long totalNanos) {
+        this.totalNanos = totalNanos;
+    }
+
+    public void print(PrintWriter out) {
+        out.printf("classes:  %d written, %d unchanged, %d skipped, %d failed in %.1f ms%n",
+                get(Counter.CLASSES_WRITTEN), get(Counter.CLASSES_UNCHANGED),
+                get(Counter.CLASSES_SKIPPED), get(Counter.CLASSES_FAILED), totalNanos / 1e6);
+        for (Phase phase : PHASES) {
+            out.printf("%-14s %10.1f ms %10d times%n", phase.displayName() + ":", getNanos(phase) / 1e6, getCount(phase));
+        }
+        out.printf("lookups:  %d (%d probes, %d archives opened)%n",
+                get(Counter.LOOKUPS), get(Counter.PROBES), get(Counter.ARCHIVES_OPENED));
+        out.printf("caches:   header %d hits, %d misses; hierarchy %d hits, %d misses%n",
+                get(Counter.HEADER_CACHE_HITS), get(Counter.HEADER_CACHE_MISSES),
+                get(Counter.HIERARCHY_CACHE_HITS), get(Counter.HIERARCHY_CACHE_MISSES));
+        out.printf("io:       %d bytes read, %d bytes written%n", get(Counter.BYTES_READ), get(Counter.BYTES_WRITTEN));
+        out.flush();
+    }
+
+    /**
+     * Receives the metrics of each generated class and of each run, to report them as JDK Flight Recorder events
+     * when the {@code jdk.jfr} module is available.
+     */
+    public interface Recorder {
+        /**
+         * Called right before generating a class.
+         *
+         * @return the value passed to {@link #classGenerated(Object, ClassName, JNIGenerator.Status, Metrics)}
+         */
+        Object classStarted();
+
+        void classGenerated(Object started, ClassName name, JNIGenerator.Status status, Metrics metrics);
+
+        void runFinished(Metrics metrics);
+
+        /**
+         * Returns the recorder of JDK Flight Recorder events, or {@code null} if Flight Recorder is not available.
+         */
+        static Recorder flightRecorder() {
+            return FlightRecorderHolder.RECORDER;
+        }
+    }
+
+    private static final class FlightRecorderHolder {
+        static final Recorder RECORDER;
+
+        static {
+            Recorder recorder = null;
+            try {
+                // Compiled separately for Java 11, since it depends on the jdk.jfr module
+                recorder = (Recorder) Class.forName("org.glavo.javah.jfr.FlightRecorderEvents")
+                        .getMethod("create")
+                        .invoke(null);
+            } catch (Throwable ignored) {
+                // Not on the class path, Java 10 or earlier, or jdk.jfr is not resolved
+            }
+            RECORDER = recorder;
+        }
+    }
+}
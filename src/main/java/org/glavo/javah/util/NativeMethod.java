@@ -4,14 +4,15 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 import java.util.Objects;
-import java.util.regex.Matcher;
 
 import static org.glavo.javah.util.Utils.*;
 
 public final class NativeMethod {
     private final int access;
     private final String name;
-    private final Type type;
+    private final MethodDescriptor descriptor;
+    // Built from the descriptor on first use, since headers are rendered from the descriptor alone
+    private Type type;
     private final String mangledName;
     private final String longMangledName;
 
@@ -26,28 +27,30 @@ public final class NativeMethod {
     public static NativeMethod of(int access, String name, String descriptor) {
         Objects.requireNonNull(name);
         Objects.requireNonNull(descriptor);
-        return NativeMethod.of(access, name, Type.getType(descriptor));
+        checkName(name);
+        return new NativeMethod(access, name, null, MethodDescriptor.of(descriptor));
     }
 
     public static NativeMethod of(int access, String name, Type type) {
         Objects.requireNonNull(name);
         Objects.requireNonNull(type);
+        checkName(name);
+        return new NativeMethod(access, name, type, MethodDescriptor.of(type.getDescriptor()));
+    }
+
+    private static void checkName(String name) {
         if (!METHOD_NAME_PATTERN.matcher(name).matches()) {
             throw new IllegalArgumentException(String.format("\"%s\" is not a qualified method name", name));
         }
-        Matcher m = METHOD_TYPE_PATTERN.matcher(type.toString());
-        if (!m.matches()) {
-            throw new IllegalArgumentException(String.format("\"%s\" is not a method type", type));
-        }
-        return new NativeMethod(access, name, type, m.group("args"));
     }
 
-    private NativeMethod(int access, String name, Type type, String arguments) {
+    private NativeMethod(int access, String name, Type type, MethodDescriptor descriptor) {
         this.access = access;
         this.name = name;
         this.type = type;
+        this.descriptor = descriptor;
         this.mangledName = mangleName(name);
-        this.longMangledName = mangledName + "__" + mangleName(arguments);
+        this.longMangledName = mangledName + "__" + descriptor.mangledArguments();
     }
 
     @Override
@@ -57,17 +60,17 @@ public final class NativeMethod {
             return false;
         }
         NativeMethod that = (NativeMethod) o;
-        return name.equals(that.name) && type.equals(that.type);
+        return name.equals(that.name) && descriptor.descriptor().equals(that.descriptor.descriptor());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, type);
+        return Objects.hash(name, descriptor.descriptor());
     }
 
     @Override
     public String toString() {
-        return String.format("NativeMethod[name=%s, type=%s}", name, type);
+        return String.format("NativeMethod[name=%s, type=%s}", name, descriptor.descriptor());
     }
 
     public String name() {
@@ -75,7 +78,16 @@ public final class NativeMethod {
     }
 
     public Type type() {
-        return type;
+        // Type is immutable, so a racy initialization at worst builds it more than once
+        Type t = type;
+        if (t == null) {
+            type = t = Type.getMethodType(descriptor.descriptor());
+        }
+        return t;
+    }
+
+    MethodDescriptor descriptor() {
+        return descriptor;
     }
 
     public String mangledName() {
@@ -3,24 +3,35 @@ package org.glavo.javah.util;
 import org.glavo.javah.ClassName;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ModuleVisitor;
 import org.objectweb.asm.Opcodes;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public final class Utils {
+    /**
+     * @deprecated multi-release roots of any version are looked up, up to the release of the task
+     */
+    @Deprecated
     public static final int MAX_SUPPORTED_VERSION = 13;
 
+    /**
+     * @deprecated multi-release roots of any version are looked up, up to the release of the task
+     */
+    @Deprecated
     public static final List<String> MULTI_RELEASE_VERSIONS =
             IntStream.rangeClosed(9, MAX_SUPPORTED_VERSION).mapToObj(Integer::toString).collect(Collectors.toList());
 
@@ -46,45 +57,152 @@ public final class Utils {
         }
     });
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /*
+     * The mangled name is sized up front and filled in a single array, and a name made only of
+     * ASCII letters and digits is returned as it is.
+     */
     public static String mangleName(String name) {
-        StringBuilder builder = new StringBuilder(name.length() * 2);
         int len = name.length();
+        int mangledLength = 0;
+        boolean unchanged = true;
         for (int i = 0; i < len; i++) {
             char ch = name.charAt(i);
-            if (ch == '.') {
-                builder.append('_');
+            if (isAsciiLetterOrDigit(ch)) {
+                mangledLength++;
+            } else if (ch == '.') {
+                mangledLength++;
+                unchanged = false;
+            } else if (ch == '$' || ch == '_' || ch == ';' || ch == '[') {
+                mangledLength += 2;
+                unchanged = false;
+            } else {
+                mangledLength += 6;
+                unchanged = false;
+            }
+        }
+        if (unchanged) {
+            return name;
+        }
+
+        char[] mangled = new char[mangledLength];
+        int p = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = name.charAt(i);
+            if (isAsciiLetterOrDigit(ch)) {
+                mangled[p++] = ch;
+            } else if (ch == '.') {
+                mangled[p++] = '_';
             } else if (ch == '$') {
-                builder.append("__");
+                mangled[p++] = '_';
+                mangled[p++] = '_';
             } else if (ch == '_') {
-                builder.append("_1");
+                mangled[p++] = '_';
+                mangled[p++] = '1';
             } else if (ch == ';') {
-                builder.append("_2");
+                mangled[p++] = '_';
+                mangled[p++] = '2';
             } else if (ch == '[') {
-                builder.append("_3");
-            } else if ((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && (ch <= 'Z'))) {
-                builder.append(ch);
+                mangled[p++] = '_';
+                mangled[p++] = '3';
             } else {
-                builder.append(String.format("_0%04x", (int) ch));
+                mangled[p++] = '_';
+                mangled[p++] = '0';
+                p = putHex(mangled, p, ch);
             }
         }
-        return builder.toString();
+        return new String(mangled);
     }
 
     public static String escape(String unicode) {
         Objects.requireNonNull(unicode);
         int len = unicode.length();
-        StringBuilder builder = new StringBuilder(len);
+        int escapedLength = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = unicode.charAt(i);
+            escapedLength += ch >= ' ' && ch <= '~' ? 1 : 6;
+        }
+        if (escapedLength == len) {
+            return unicode;
+        }
+
+        char[] escaped = new char[escapedLength];
+        int p = 0;
         for (int i = 0; i < len; i++) {
             char ch = unicode.charAt(i);
             if (ch >= ' ' && ch <= '~') {
-                builder.append(ch);
+                escaped[p++] = ch;
             } else {
-                builder.append(String.format("\\u%04x", (int) ch));
+                escaped[p++] = '\\';
+                escaped[p++] = 'u';
+                p = putHex(escaped, p, ch);
             }
         }
-        return builder.toString();
+        return new String(escaped);
     }
 
+    /**
+     * Escapes a path for the target or prerequisite list of a make rule, which ninja reads the same way:
+     * spaces and {@code #} are preceded by a backslash, and {@code $} is doubled.
+     */
+    public static String escapeMakePath(String path) {
+        Objects.requireNonNull(path);
+        StringBuilder builder = null;
+        for (int i = 0; i < path.length(); i++) {
+            char ch = path.charAt(i);
+            if (ch == ' ' || ch == '#' || ch == '$') {
+                if (builder == null) {
+                    builder = new StringBuilder(path.length() + 8).append(path, 0, i);
+                }
+                builder.append(ch == '$' ? '$' : '\\');
+            }
+            if (builder != null) {
+                builder.append(ch);
+            }
+        }
+        return builder == null ? path : builder.toString();
+    }
+
+    private static boolean isAsciiLetterOrDigit(char ch) {
+        return (ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z');
+    }
+
+    private static int putHex(char[] buffer, int p, char ch) {
+        buffer[p] = HEX_DIGITS[(ch >> 12) & 0xf];
+        buffer[p + 1] = HEX_DIGITS[(ch >> 8) & 0xf];
+        buffer[p + 2] = HEX_DIGITS[(ch >> 4) & 0xf];
+        buffer[p + 3] = HEX_DIGITS[ch & 0xf];
+        return p + 4;
+    }
+
+    /**
+     * Returns the version of a directory under {@code META-INF/versions} of a multi-release archive,
+     * or -1 if {@code name} is not a version of at least 9.
+     */
+    public static int versionOf(String name) {
+        if (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (name.isEmpty() || name.length() > 9 || name.charAt(0) == '0') {
+            return -1;
+        }
+        int version = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            version = version * 10 + (ch - '0');
+        }
+        return version >= 9 ? version : -1;
+    }
+
+    /**
+     * @deprecated the returned file system of an archive is never closed; use
+     * {@link org.glavo.javah.search.ArchivePool#root(Path)} instead
+     */
+    @Deprecated
     public static Path classPathRoot(Path p) {
         Objects.requireNonNull(p);
         p = p.toAbsolutePath();
@@ -113,9 +231,76 @@ public final class Utils {
         return null;
     }
 
+    /*
+     * Writes to a temporary file next to the target, then renames it over the target,
+     * so that readers never observe a partially written file.
+     */
+    public static void writeAtomically(Path target, byte[] content) throws IOException {
+        Objects.requireNonNull(content);
+        writeAtomically(target, ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Writes the remaining content of {@code content}, without changing its position, to a temporary file
+     * next to the target through a single channel, then renames it over the target,
+     * so that readers never observe a partially written file.
+     */
+    public static void writeAtomically(Path target, ByteBuffer content) throws IOException {
+        Objects.requireNonNull(target);
+        Objects.requireNonNull(content);
+        Path tmp = target.resolveSibling(
+                "." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer b = content.duplicate();
+                while (b.hasRemaining()) {
+                    channel.write(b);
+                }
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Atomically replaces {@code target} with {@code content}, unless it already has that content.
+     *
+     * @return whether the file was written
+     */
+    public static boolean writeIfChanged(Path target, byte[] content) throws IOException {
+        Objects.requireNonNull(content);
+        return writeIfChanged(target, ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Atomically replaces {@code target} with the remaining content of {@code content}, unless it already
+     * has that content. The existing file is only read if its size matches.
+     *
+     * @return whether the file was written
+     */
+    public static boolean writeIfChanged(Path target, ByteBuffer content) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(target, BasicFileAttributes.class);
+        } catch (IOException e) {
+            attrs = null;
+        }
+        if (attrs != null && attrs.isRegularFile() && attrs.size() == content.remaining()
+                && ByteBuffer.wrap(Files.readAllBytes(target)).equals(content)) {
+            return false;
+        }
+        writeAtomically(target, content);
+        return true;
+    }
+
     static final class SuperNameVisitor extends ClassVisitor {
         SuperNameVisitor() {
-            super(Opcodes.ASM7);
+            super(Opcodes.ASM9);
         }
 
         ClassName superName = null;
@@ -134,4 +319,21 @@ public final class Utils {
         reader.accept(v, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
         return v.superName;
     }
+
+    /**
+     * Returns the name of the module declared by a {@code module-info} class file,
+     * or {@code null} if it is not one.
+     */
+    public static String moduleNameOf(ClassReader reader) {
+        Objects.requireNonNull(reader);
+        String[] name = {null};
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public ModuleVisitor visitModule(String moduleName, int access, String version) {
+                name[0] = moduleName;
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        return name[0];
+    }
 }
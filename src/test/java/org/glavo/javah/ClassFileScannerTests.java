@@ -0,0 +1,52 @@
+package org.glavo.javah;
+
+import org.glavo.javah.util.ClassFileScanner;
+import org.glavo.javah.util.ClassMetaInfo;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClassFileScannerTests {
+
+    @Test
+    void test() throws Exception {
+        Path root = FileSystems.getFileSystem(URI.create("jrt:/")).getPath("/modules", "java.base");
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root.resolve("java/lang")).limit(2000)) {
+            files = stream.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+        }
+        files.add(root.resolve("java/util/zip/Inflater.class"));
+
+        int relevant = 0;
+        for (Path file : files) {
+            byte[] bytes = Files.readAllBytes(file);
+            ClassMetaInfo meta = new ClassMetaInfo();
+            new ClassReader(bytes).accept(meta, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+            boolean expected = !meta.methods.isEmpty() || !meta.constants.isEmpty();
+            assertEquals(expected, ClassFileScanner.hasNativeMethodsOrConstants(bytes), file.toString());
+
+            byte[] padded = new byte[bytes.length + 8];
+            System.arraycopy(bytes, 0, padded, 4, bytes.length);
+            assertEquals(expected, ClassFileScanner.hasNativeMethodsOrConstants(padded, 4, bytes.length), file.toString());
+            if (expected) {
+                relevant++;
+            }
+        }
+        assertTrue(relevant > 0 && relevant < files.size());
+
+        byte[] object = Files.readAllBytes(root.resolve("java/lang/Object.class"));
+        assertTrue(ClassFileScanner.hasNativeMethodsOrConstants(Arrays.copyOf(object, object.length / 2)));
+        assertTrue(ClassFileScanner.hasNativeMethodsOrConstants(new byte[0]));
+    }
+}
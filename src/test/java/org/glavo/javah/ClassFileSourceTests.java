@@ -0,0 +1,138 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.ClassPath;
+import org.glavo.javah.search.FileManagerClassFileSource;
+import org.glavo.javah.search.MemoryClassFileSource;
+import org.glavo.javah.search.RuntimeSearchPath;
+import org.glavo.javah.search.SearchPath;
+import org.glavo.javah.util.GenerationResult;
+import org.glavo.javah.util.JNIGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClassFileSourceTests {
+    private static final String SOURCE = "package p;\n" +
+            "public class InMemory {\n" +
+            "    static final int C = 1;\n" +
+            "    static class E extends IllegalStateException {}\n" +
+            "    static class F extends E {}\n" +
+            "    native F f(E e, Object o);\n" +
+            "}\n";
+
+    private static final String[] CLASSES = {"p.InMemory", "p.InMemory$E", "p.InMemory$F"};
+
+    /*
+     * A file manager that keeps the compiled class files in memory.
+     */
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        final Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public boolean hasLocation(Location location) {
+            return location == StandardLocation.CLASS_OUTPUT || super.hasLocation(location);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    outputs.put(className, out);
+                    return out;
+                }
+            };
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForInput(Location location, String className, JavaFileObject.Kind kind)
+                throws IOException {
+            ByteArrayOutputStream out = outputs.get(className);
+            if (location != StandardLocation.CLASS_OUTPUT || out == null) {
+                return super.getJavaFileForInput(location, className, kind);
+            }
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public InputStream openInputStream() {
+                    return new ByteArrayInputStream(out.toByteArray());
+                }
+            };
+        }
+    }
+
+    private static MemoryFileManager compile() {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        MemoryFileManager fileManager = new MemoryFileManager(compiler.getStandardFileManager(null, null, null));
+        JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///p/InMemory.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return SOURCE;
+            }
+        };
+        assertTrue(compiler.getTask(null, fileManager, null, Collections.singletonList("-proc:none"), null,
+                Collections.singletonList(source)).call());
+        assertEquals(new HashSet<>(Arrays.asList(CLASSES)), fileManager.outputs.keySet());
+        return fileManager;
+    }
+
+    private static String render(JNIGenerator generator) {
+        GenerationResult result = generator.render(ClassName.ofFullName("p.InMemory"));
+        assertTrue(result.isSuccess(), result.errors().toString());
+        assertTrue(result.warnings().isEmpty(), result.warnings().toString());
+        return new String(result.headerBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testSources(@TempDir Path dir) throws Exception {
+        MemoryFileManager fileManager = compile();
+        Map<String, byte[]> classFiles = new HashMap<>();
+        fileManager.outputs.forEach((name, out) -> classFiles.put(name, out.toByteArray()));
+
+        for (String name : CLASSES) {
+            Path file = dir.resolve(name.replace('.', '/') + ".class");
+            Files.createDirectories(file.getParent());
+            Files.write(file, classFiles.get(name));
+        }
+        List<SearchPath> searchPaths = Arrays.asList(new ClassPath(dir), RuntimeSearchPath.INSTANCE);
+        String expected = render(new JNIGenerator(null, searchPaths));
+        assertTrue(expected.contains("JNIEXPORT jthrowable JNICALL Java_p_InMemory_f"));
+        assertTrue(expected.contains("(JNIEnv *, jobject, jthrowable, jobject);"));
+
+        JNIGenerator generator = new JNIGenerator(null, Collections.singletonList(RuntimeSearchPath.INSTANCE));
+        generator.setClassFileSources(Collections.singletonList(new MemoryClassFileSource(classFiles)));
+        assertEquals(expected, render(generator));
+
+        generator = new JNIGenerator(null, Collections.singletonList(RuntimeSearchPath.INSTANCE));
+        generator.setClassFileSources(Collections.singletonList(new FileManagerClassFileSource(fileManager)));
+        assertEquals(expected, render(generator));
+    }
+
+    @Test
+    void testMemoryClassFileSource() {
+        MemoryClassFileSource source = new MemoryClassFileSource();
+        source.put("p.InMemory$E", new byte[]{1, 2, 3});
+        assertEquals(3, source.read(ClassName.ofFullName("p.InMemory$E")).remaining());
+        assertNull(source.read(ClassName.ofFullName("p.InMemory")));
+        source.remove("p.InMemory$E");
+        assertTrue(source.names().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> source.put("p..E", new byte[0]));
+    }
+}
@@ -0,0 +1,211 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.ArchivePool;
+import org.glavo.javah.search.ClassIndex;
+import org.glavo.javah.search.ClassPath;
+import org.glavo.javah.search.ModulePath;
+import org.glavo.javah.search.RuntimeSearchPath;
+import org.glavo.javah.search.SearchPath;
+import org.glavo.javah.util.JNIGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClassIndexTests {
+    static class Natives {
+        native void f(IllegalStateException e);
+    }
+
+    private static Path createClassFile(Path root, String name) throws Exception {
+        Path p = root.resolve(name.replace('.', '/') + ".class");
+        Files.createDirectories(p.getParent());
+        Files.write(p, new byte[0]);
+        return p;
+    }
+
+    @Test
+    void testMerge(@TempDir Path dir) throws Exception {
+        Path first = dir.resolve("first");
+        Path second = dir.resolve("second");
+        Path a1 = createClassFile(first, "a.A");
+        createClassFile(second, "a.A");
+        Path b2 = createClassFile(second, "b.B");
+
+        List<SearchPath> merged = ClassIndex.merge(Arrays.asList(
+                new ClassPath(first), new ClassPath(second), RuntimeSearchPath.INSTANCE
+        ));
+        assertEquals(2, merged.size());
+        assertTrue(merged.get(0) instanceof ClassIndex);
+        assertSame(RuntimeSearchPath.INSTANCE, merged.get(1));
+
+        assertEquals(a1, SearchPath.searchFrom(merged, ClassName.ofFullName("a.A")));
+        assertEquals(b2, SearchPath.searchFrom(merged, ClassName.ofFullName("b.B")));
+        assertNull(merged.get(0).search(ClassName.ofFullName("c.C")));
+    }
+
+    @Test
+    void testArchivePool(@TempDir Path dir) throws Exception {
+        for (String name : new String[]{"a", "b", "c"}) {
+            try (OutputStream out = Files.newOutputStream(dir.resolve(name + ".jar"));
+                 ZipOutputStream zip = new ZipOutputStream(out)) {
+                zip.putNextEntry(new ZipEntry(name + "/" + name.toUpperCase() + ".class"));
+                zip.write(name.getBytes());
+                zip.closeEntry();
+            }
+        }
+
+        ArchivePool pool = new ArchivePool(1);
+        ModulePath modulePath = new ModulePath(dir, pool);
+        assertEquals(0, pool.getOpenCount());
+
+        for (int i = 0; i < 2; i++) {
+            for (String name : new String[]{"a", "b", "c"}) {
+                Path p = modulePath.search(ClassName.ofFullName(name + "." + name.toUpperCase()));
+                assertArrayEquals(name.getBytes(), Files.readAllBytes(p));
+                assertEquals(1, pool.getOpenCount());
+            }
+        }
+        assertNull(modulePath.search(ClassName.ofFullName("d.D")));
+
+        pool.close();
+        assertEquals(0, pool.getOpenCount());
+        assertNull(modulePath.search(ClassName.ofFullName("a.A")));
+    }
+
+    @Test
+    void testRelease(@TempDir Path dir) throws Exception {
+        Path root = dir.resolve("classes");
+        Files.createDirectories(root.resolve("META-INF"));
+        Files.write(root.resolve("META-INF/MANIFEST.MF"), "Manifest-Version: 1.0\nMulti-Release: true\n".getBytes());
+        Path base = createClassFile(root, "a.A");
+        Path v11 = createClassFile(root.resolve("META-INF/versions/11"), "a.A");
+        Path v21 = createClassFile(root.resolve("META-INF/versions/21"), "a.A");
+        createClassFile(root.resolve("META-INF/versions/09"), "a.A");
+
+        assertEquals(Arrays.asList(root.resolve("META-INF/versions/11"), root), SearchPath.multiReleaseRoots(root, 17));
+        ClassName name = ClassName.ofFullName("a.A");
+        ArchivePool pool = new ArchivePool();
+        assertEquals(v21, new ClassPath(root).search(name));
+        assertEquals(v11, new ClassPath(root, pool, 17).search(name));
+        assertEquals(v11, new ClassPath(root, pool, 11).search(name));
+        assertEquals(base, new ClassPath(root, pool, 10).search(name));
+        assertEquals(base, new ClassPath(root, pool, 8).search(name));
+
+        Path jar = dir.resolve("mr.jar");
+        try (OutputStream out = Files.newOutputStream(jar);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.write("Manifest-Version: 1.0\nMulti-Release: true\n".getBytes());
+            for (String entry : new String[]{"a/A.class", "META-INF/versions/11/a/A.class", "META-INF/versions/21/a/A.class"}) {
+                zip.putNextEntry(new ZipEntry(entry));
+                zip.write(entry.getBytes());
+            }
+        }
+        try (ArchivePool p = new ArchivePool()) {
+            assertArrayEquals("META-INF/versions/21/a/A.class".getBytes(),
+                    Files.readAllBytes(new ClassPath(jar, p).search(name)));
+            assertArrayEquals("META-INF/versions/11/a/A.class".getBytes(),
+                    Files.readAllBytes(new ClassPath(jar, p, 17).search(name)));
+            assertArrayEquals("a/A.class".getBytes(), Files.readAllBytes(new ClassPath(jar, p, 9).search(name)));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ClassPath(root, pool, 0));
+    }
+
+    @Test
+    void testClosedArchive(@TempDir Path dir) throws Exception {
+        ClassName name = ClassName.ofFullName(Natives.class.getName());
+        for (String jar : new String[]{"a.jar", "b.jar"}) {
+            try (OutputStream out = Files.newOutputStream(dir.resolve(jar));
+                 ZipOutputStream zip = new ZipOutputStream(out);
+                 InputStream in = Natives.class.getResourceAsStream("/" + name.relativePath())) {
+                zip.putNextEntry(new ZipEntry(jar.equals("a.jar") ? name.relativePath() : "b/B.class"));
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    zip.write(buffer, 0, n);
+                }
+                zip.closeEntry();
+            }
+        }
+
+        ArchivePool pool = new ArchivePool(1);
+        ClassPath a = new ClassPath(dir.resolve("a.jar"), pool);
+        ClassPath b = new ClassPath(dir.resolve("b.jar"), pool);
+        Path stale = a.search(name);
+        assertNotNull(b.search(ClassName.ofFullName("b.B")));
+        assertThrows(ClosedFileSystemException.class, () -> Files.readAllBytes(stale));
+
+        // A class file found before its archive was closed is looked up again
+        JNIGenerator generator = new JNIGenerator(dir.resolve("out"), Arrays.asList(a, b, RuntimeSearchPath.INSTANCE));
+        assertEquals(JNIGenerator.Status.WRITTEN, generator.generateScanned(name, stale));
+
+        AtomicBoolean returned = new AtomicBoolean();
+        SearchPath once = n -> n.equals(name) && !returned.getAndSet(true) ? stale : null;
+        generator = new JNIGenerator(dir.resolve("out"), Arrays.asList(once, a, b, RuntimeSearchPath.INSTANCE));
+        assertEquals(JNIGenerator.Status.WRITTEN, generator.generate(name));
+        assertTrue(returned.get());
+
+        assertTrue(Files.size(dir.resolve("out").resolve(name.mangledName() + ".h")) > 0);
+    }
+
+    @Test
+    void testPackagesListedOnFirstUse(@TempDir Path dir) throws Exception {
+        Path first = dir.resolve("first");
+        Path second = dir.resolve("second");
+        Path a1 = createClassFile(first, "a.A");
+        createClassFile(second, "a.A");
+        Path top = createClassFile(second, "Top");
+        ClassIndex index = new ClassIndex(Arrays.asList(first, second));
+
+        assertEquals(a1, index.search(ClassName.ofFullName("a.A")));
+        assertEquals(top, index.search(ClassName.ofFullName("Top")));
+        // Other packages are only listed when first looked up
+        Path c = createClassFile(second, "c.C");
+        assertEquals(c, index.search(ClassName.ofFullName("c.C")));
+
+        Path b = createClassFile(first, "a.B");
+        assertNull(index.search(ClassName.ofFullName("a.B")));
+        index.update(Arrays.asList("a/B.class"));
+        assertEquals(b, index.search(ClassName.ofFullName("a.B")));
+
+        assertEquals(4, index.names().size());
+    }
+
+    @Test
+    void testPackageStamps(@TempDir Path dir) throws Exception {
+        Path a = createClassFile(dir, "a.A");
+        createClassFile(dir, "b.B");
+        ClassIndex index = new ClassIndex(Arrays.asList(dir));
+
+        assertNotNull(index.search(ClassName.ofFullName("a.A")));
+        // Only the packages that were looked up are stamped
+        assertEquals(Collections.singleton("a"), index.packageStamps().keySet());
+        long stamp = index.packageStamp("a");
+        assertEquals(stamp, new ClassIndex(Arrays.asList(dir)).packageStamp("a"));
+
+        Files.write(a, new byte[]{0});
+        assertNotEquals(stamp, new ClassIndex(Arrays.asList(dir)).packageStamp("a"));
+        createClassFile(dir, "a.C");
+        ClassIndex added = new ClassIndex(Arrays.asList(dir));
+        assertNotEquals(stamp, added.packageStamp("a"));
+
+        // A full enumeration stamps the packages the same way
+        added.names();
+        ClassIndex listed = new ClassIndex(Arrays.asList(dir));
+        assertEquals(added.packageStamps().get("a"), (Long) listed.packageStamp("a"));
+        assertEquals(added.packageStamps().get("b"), (Long) listed.packageStamp("b"));
+    }
+}
@@ -0,0 +1,74 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.RuntimeSearchPath;
+import org.glavo.javah.util.HeaderCache;
+import org.glavo.javah.util.JNIGenerator;
+import org.glavo.javah.util.Metrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeaderCacheTests {
+    private static final ClassName DEPENDENCY = ClassName.ofFullName("a.Dependency");
+
+    static class Natives {
+        native void f(IllegalStateException e);
+    }
+
+    @Test
+    void testDependencies(@TempDir Path dir) throws Exception {
+        HeaderCache cache = new HeaderCache(dir);
+        String key = HeaderCache.keyOf(new byte[]{1, 2, 3});
+        byte[] header = {4, 5, 6};
+        String digest = HeaderCache.digestOf(new byte[]{7});
+
+        assertNull(cache.get(key, n -> digest));
+        cache.put(key, Collections.singletonMap(DEPENDENCY, digest), header);
+
+        assertArrayEquals(header, cache.get(key, n -> digest));
+        assertNull(cache.get(key, n -> ""));
+        assertNull(cache.get(key, n -> HeaderCache.digestOf(new byte[]{8})));
+    }
+
+    @Test
+    void testTrim(@TempDir Path dir) throws Exception {
+        HeaderCache cache = new HeaderCache(dir, 100);
+        Map<ClassName, String> dependencies = Collections.emptyMap();
+        for (int i = 0; i < 10; i++) {
+            cache.put(HeaderCache.keyOf(new byte[]{(byte) i}), dependencies, new byte[20]);
+        }
+        cache.trim();
+
+        long size = Files.walk(dir).filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        assertTrue(size <= 100);
+        assertTrue(size > 0);
+    }
+
+    @Test
+    void testScannedHit(@TempDir Path dir) throws Exception {
+        ClassName name = ClassName.ofFullName(Natives.class.getName());
+        Path classFile = dir.resolve("Natives.class");
+        try (InputStream in = Natives.class.getResourceAsStream("/" + name.relativePath())) {
+            Files.copy(in, classFile);
+        }
+
+        for (int i = 0; i < 2; i++) {
+            JNIGenerator generator = new JNIGenerator(dir.resolve("out"),
+                    Collections.singleton(RuntimeSearchPath.INSTANCE));
+            generator.setHeaderCache(new HeaderCache(dir.resolve("cache")));
+            Metrics metrics = new Metrics();
+            generator.setMetrics(metrics);
+            assertEquals(JNIGenerator.Status.WRITTEN, generator.generateScanned(name, classFile));
+            assertEquals(i, metrics.get(Metrics.Counter.HEADER_CACHE_HITS));
+            // Scanning for native methods, then parsing only on the miss
+            assertEquals(i == 0 ? 2 : 1, metrics.getCount(Metrics.Phase.PARSE));
+        }
+    }
+}
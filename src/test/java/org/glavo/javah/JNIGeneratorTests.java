@@ -0,0 +1,53 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.RuntimeSearchPath;
+import org.glavo.javah.search.SearchPath;
+import org.glavo.javah.util.GenerationResult;
+import org.glavo.javah.util.JNIGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JNIGeneratorTests {
+    static class N {
+        static final long C = 1L;
+
+        native void f(int i, RuntimeException e);
+
+        native void g(RuntimeException e);
+    }
+
+    @Test
+    void testRenderAll(@TempDir Path dir) throws Exception {
+        SearchPath searchPath = name -> name.className().startsWith("org.glavo.") ? RuntimeSearchPath.searchClass(name) : null;
+        JNIGenerator generator = new JNIGenerator(dir, Collections.singleton(searchPath));
+
+        ClassName n = ClassName.ofFullName(N.class.getName());
+        ClassName missing = ClassName.ofFullName("org.glavo.javah.Missing");
+        List<GenerationResult> results = generator.renderAll(Arrays.asList(n, missing, n));
+        assertEquals(3, results.size());
+
+        GenerationResult r = results.get(0);
+        assertTrue(r.isSuccess());
+        assertEquals(n, r.className());
+        assertEquals(n.mangledName() + ".h", r.fileName());
+        assertEquals(Collections.singletonList("class java.lang.RuntimeException not found"), r.warnings());
+        assertEquals(results.get(2), r);
+
+        generator.generate(n);
+        assertArrayEquals(Files.readAllBytes(dir.resolve(r.fileName())), r.headerBytes());
+        assertEquals(r.headerBytes().length, r.header().remaining());
+
+        GenerationResult m = results.get(1);
+        assertFalse(m.isSuccess());
+        assertNull(m.header());
+        assertEquals(Collections.singletonList("class org.glavo.javah.Missing not found"), m.errors());
+    }
+}
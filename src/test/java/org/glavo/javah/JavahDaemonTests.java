@@ -0,0 +1,70 @@
+package org.glavo.javah;
+
+import org.glavo.javah.resource.Resource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ResourceBundle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JavahDaemonTests {
+    static class N {
+        native void f(String s);
+    }
+
+    @Test
+    void test(@TempDir Path dir) throws Exception {
+        Path portFile = dir.resolve("daemon.port");
+        try (JavahDaemon daemon = new JavahDaemon()) {
+            daemon.publish(portFile);
+            Thread server = new Thread(() -> {
+                try {
+                    daemon.serve();
+                } catch (Exception ignored) {
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteArrayOutputStream err = new ByteArrayOutputStream();
+                Integer status = JavahClient.run(portFile, new String[]{"-d", "out", N.class.getName(), "a.Missing"},
+                        dir, dir.toString(), out, err);
+                assertEquals(Integer.valueOf(0), status);
+                assertTrue(err.toString("UTF-8").contains("error: class a.Missing not found"));
+            }
+            assertTrue(Files.isRegularFile(dir.resolve("out").resolve(ClassName.ofFullName(N.class.getName()).mangledName() + ".h")));
+
+            // The locale of a request does not change the messages of the daemon
+            ResourceBundle text = Resource.text;
+            ByteArrayOutputStream help = new ByteArrayOutputStream();
+            assertEquals(Integer.valueOf(0),
+                    JavahClient.run(portFile, new String[]{"--locale", "zh-CN", "--help"}, dir, null, help, help));
+            assertSame(text, Resource.text);
+
+            // Class paths longer than 64 KB
+            StringBuilder classPath = new StringBuilder();
+            for (int i = 0; classPath.length() <= 65536; i++) {
+                classPath.append(dir.resolve("missing-" + i)).append(File.pathSeparatorChar);
+            }
+            classPath.append(dir);
+            ByteArrayOutputStream longOut = new ByteArrayOutputStream();
+            assertEquals(Integer.valueOf(0), JavahClient.run(portFile,
+                    new String[]{"-d", "long", "-cp", classPath.toString(), N.class.getName()},
+                    dir, classPath.toString(), longOut, longOut));
+            assertTrue(Files.isRegularFile(dir.resolve("long").resolve(ClassName.ofFullName(N.class.getName()).mangledName() + ".h")));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(Integer.valueOf(-1), JavahClient.run(portFile, new String[0], dir, null, out, out));
+            assertTrue(out.size() > 0);
+        }
+        assertTrue(Files.notExists(portFile));
+        assertNull(JavahClient.run(portFile, new String[0], dir, null, System.out, System.err));
+    }
+}
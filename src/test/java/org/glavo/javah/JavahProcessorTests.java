@@ -0,0 +1,103 @@
+package org.glavo.javah;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JavahProcessorTests {
+    private static final String SOURCE = "package p;\n" +
+            "public class Natives {\n" +
+            "    public static final int I = 42;\n" +
+            "    public static final boolean B = true;\n" +
+            "    public static final char C = 'c';\n" +
+            "    public static final double D = 1.5;\n" +
+            "    public static final String S = \"s\";\n" +
+            "    static class E extends IllegalStateException {}\n" +
+            "    native void f(int i, String s, Class<?> c);\n" +
+            "    native void f(long l);\n" +
+            "    static native E g(java.util.List<E> list, RuntimeException e, Natives[] array);\n" +
+            "    native <T extends Throwable> T h(T t, Object o);\n" +
+            "    public static class Inner {\n" +
+            "        static final long L = 1L << 40;\n" +
+            "        native float[][] i(byte[] b);\n" +
+            "    }\n" +
+            "    void nothing() {}\n" +
+            "}\n";
+
+    private static List<String> headers(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(f -> f.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void testProcessor(@TempDir Path dir) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull(compiler);
+        Path source = dir.resolve("src/p/Natives.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, SOURCE.getBytes("UTF-8"));
+        Path classes = dir.resolve("classes");
+        Path processed = dir.resolve("processed");
+        Files.createDirectories(classes);
+
+        StringWriter output = new StringWriter();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(output, fileManager, null,
+                    Arrays.asList("-proc:only", "-Agjavah.outputDir=" + processed),
+                    null, fileManager.getJavaFileObjects(source.toFile()));
+            task.setProcessors(Collections.singletonList(new JavahProcessor()));
+            assertTrue(task.call(), output.toString());
+
+            task = compiler.getTask(output, fileManager, null,
+                    Arrays.asList("-proc:none", "-d", classes.toString()),
+                    null, fileManager.getJavaFileObjects(source.toFile()));
+            assertTrue(task.call(), output.toString());
+        }
+
+        Path generated = dir.resolve("generated");
+        try (JavahTask task = new JavahTask()) {
+            task.addClassPath(classes);
+            task.addRuntimeSearchPath();
+            task.setScan(true);
+            task.setOutputDir(generated);
+            task.run();
+        }
+
+        assertEquals(Arrays.asList("p_Natives.h", "p_Natives__Inner.h"), headers(processed));
+        assertEquals(headers(generated), headers(processed));
+        for (String header : headers(generated)) {
+            assertEquals(new String(Files.readAllBytes(generated.resolve(header)), "UTF-8"),
+                    new String(Files.readAllBytes(processed.resolve(header)), "UTF-8"), header);
+        }
+    }
+
+    @Test
+    void testWithoutOutputDir(@TempDir Path dir) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Path source = dir.resolve("p/Natives.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, SOURCE.getBytes("UTF-8"));
+
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null,
+                    Collections.singletonList("-proc:only"), null, fileManager.getJavaFileObjects(source.toFile()));
+            task.setProcessors(Collections.singletonList(new JavahProcessor()));
+            assertTrue(task.call());
+        }
+        assertEquals(Collections.singletonList("Natives.java"), headers(source.getParent()));
+    }
+}
@@ -0,0 +1,312 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.RuntimeSearchPath;
+import org.glavo.javah.search.SearchPath;
+import org.glavo.javah.util.ClassHierarchy;
+import org.glavo.javah.util.JNIGenerator;
+import org.glavo.javah.util.Metrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JavahTaskTests {
+    static class N1 {
+        native void f(int i);
+
+        native Exception g(RuntimeException e);
+    }
+
+    static class N2 {
+        static final int C = 10;
+
+        static native String[] f(long[] array);
+    }
+
+    static class E extends IllegalStateException {
+    }
+
+    static class N3 {
+        native E f(RuntimeException e);
+    }
+
+    private static final String[] CLASSES = {
+            N1.class.getName(), "org.glavo.javah.Missing0", N2.class.getName(), "org.glavo.javah.Missing1",
+            "java.lang.Object", "org.glavo.javah.Missing2", "java.lang.Thread"
+    };
+
+    private static String run(Path outputDir, int parallelism) {
+        StringWriter err = new StringWriter();
+        JavahTask task = new JavahTask();
+        task.addRuntimeSearchPath();
+        task.addClasses(Arrays.asList(CLASSES));
+        task.setOutputDir(outputDir);
+        task.setParallelism(parallelism);
+        task.setErrorHandle(err);
+        task.run();
+        task.getErrorHandle().flush();
+        return err.toString();
+    }
+
+    @Test
+    void testParallel(@TempDir Path dir) throws Exception {
+        Path serial = dir.resolve("serial");
+        Path parallel = dir.resolve("parallel");
+
+        String serialErrors = run(serial, 1);
+        String parallelErrors = run(parallel, 4);
+        assertEquals(serialErrors, parallelErrors);
+        assertTrue(serialErrors.indexOf("Missing0") < serialErrors.indexOf("Missing1"));
+        assertTrue(serialErrors.indexOf("Missing1") < serialErrors.indexOf("Missing2"));
+
+        for (String name : CLASSES) {
+            String file = ClassName.ofFullName(name).mangledName() + ".h";
+            assertArrayEquals(Files.readAllBytes(serial.resolve(file)), Files.readAllBytes(parallel.resolve(file)), file);
+        }
+    }
+
+    @Test
+    void testClassHierarchy(@TempDir Path dir) {
+        SearchPath searchPath = name -> name.className().startsWith("org.glavo.") ? RuntimeSearchPath.searchClass(name) : null;
+        StringWriter err = new StringWriter();
+        ClassHierarchy hierarchy = new ClassHierarchy();
+        JNIGenerator generator = new JNIGenerator(dir, Collections.singleton(searchPath), new PrintWriter(err, true), hierarchy);
+
+        generator.generate(ClassName.ofFullName(N1.class.getName()));
+        generator.generate(ClassName.ofFullName(N1.class.getName()));
+
+        String warning = "warning: class java.lang.RuntimeException not found";
+        assertTrue(err.toString().contains(warning));
+        assertEquals(err.toString().indexOf(warning), err.toString().lastIndexOf(warning));
+        assertTrue(hierarchy.isMissing(ClassName.ofFullName("java.lang.RuntimeException")));
+    }
+
+    @Test
+    void testIncremental(@TempDir Path dir) throws Exception {
+        JavahTask task = new JavahTask();
+        task.addRuntimeSearchPath();
+        task.addClass(N1.class.getName());
+        task.addClass(N2.class.getName());
+        task.setOutputDir(dir);
+        task.setIncremental(true);
+
+        task.run();
+        assertEquals(2, task.getWrittenCount());
+        assertEquals(0, task.getUnchangedCount());
+
+        Path header = dir.resolve(ClassName.ofFullName(N2.class.getName()).mangledName() + ".h");
+        FileTime time = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(header, time);
+
+        task.run();
+        assertEquals(0, task.getWrittenCount());
+        assertEquals(2, task.getUnchangedCount());
+        assertEquals(time, Files.getLastModifiedTime(header));
+
+        Files.write(header, new byte[0]);
+        task.run();
+        assertEquals(1, task.getWrittenCount());
+        assertEquals(1, task.getUnchangedCount());
+    }
+
+    private static int scan(Path classPath, Path outputDir, String filter) {
+        JavahTask task = new JavahTask();
+        task.addClassPath(classPath);
+        task.addRuntimeSearchPath();
+        task.setScan(true);
+        task.addScanFilter(filter);
+        task.setOutputDir(outputDir);
+        task.setParallelism(2);
+        task.run();
+        return task.getWrittenCount();
+    }
+
+    private static void copyClass(Class<?> c, Path classPath) throws Exception {
+        Path file = classPath.resolve(c.getName().replace('.', '/') + ".class");
+        Files.createDirectories(file.getParent());
+        try (InputStream in = c.getResourceAsStream("/" + c.getName().replace('.', '/') + ".class")) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Test
+    void testScan(@TempDir Path dir) throws Exception {
+        Path classPath = dir.resolve("classes");
+        for (Class<?> c : new Class<?>[]{N1.class, N2.class, JavahTaskTests.class}) {
+            copyClass(c, classPath);
+        }
+
+        Path out = dir.resolve("out");
+        assertEquals(2, scan(classPath, out, "org.glavo.**"));
+        assertTrue(Files.isRegularFile(out.resolve(ClassName.ofFullName(N1.class.getName()).mangledName() + ".h")));
+        assertTrue(Files.isRegularFile(out.resolve(ClassName.ofFullName(N2.class.getName()).mangledName() + ".h")));
+        assertFalse(Files.exists(out.resolve(ClassName.ofFullName(JavahTaskTests.class.getName()).mangledName() + ".h")));
+
+        assertEquals(1, scan(classPath, dir.resolve("out1"), "org.glavo.javah.*$N2"));
+        assertEquals(0, scan(classPath, dir.resolve("out2"), "org.glavo.*"));
+    }
+
+    @Test
+    void testWatch(@TempDir Path dir) throws Exception {
+        Path classPath = dir.resolve("classes");
+        Path out = dir.resolve("out");
+        copyClass(N1.class, classPath);
+        try (JavahTask task = new JavahTask()) {
+            task.addClassPath(classPath);
+            task.addRuntimeSearchPath();
+            task.setScan(true);
+            task.setIncremental(true);
+            task.setOutputDir(out);
+            task.run();
+            assertEquals(1, task.getWrittenCount());
+
+            try (JavahWatcher watcher = new JavahWatcher(task)) {
+                assertEquals(1, watcher.getDirectoryCount());
+                assertNull(watcher.update(0, TimeUnit.MILLISECONDS));
+
+                copyClass(N2.class, classPath);
+                Metrics metrics = watcher.update(10, TimeUnit.SECONDS);
+                assertNotNull(metrics);
+                assertEquals(1, watcher.getChangedCount());
+                assertEquals(1, metrics.get(Metrics.Counter.CLASSES_WRITTEN));
+                assertEquals(0, metrics.get(Metrics.Counter.CLASSES_UNCHANGED));
+                assertTrue(Files.isRegularFile(out.resolve(ClassName.ofFullName(N2.class.getName()).mangledName() + ".h")));
+
+                copyClass(N1.class, classPath);
+                metrics = watcher.update(10, TimeUnit.SECONDS);
+                assertNotNull(metrics);
+                assertEquals(0, metrics.get(Metrics.Counter.CLASSES_WRITTEN));
+                assertTrue(metrics.get(Metrics.Counter.CLASSES_UNCHANGED) >= 1);
+            }
+        }
+    }
+
+    @Test
+    void testOutputFile(@TempDir Path dir) throws Exception {
+        String[] contents = new String[2];
+        for (int i = 0; i < contents.length; i++) {
+            Path file = dir.resolve("out" + i).resolve("natives.h");
+            JavahTask task = new JavahTask();
+            task.addRuntimeSearchPath();
+            task.addClasses(Arrays.asList(CLASSES));
+            task.setOutputFile(file);
+            task.setParallelism(i == 0 ? 1 : 4);
+            task.setIncremental(true);
+            task.setErrorHandle(new StringWriter());
+            task.run();
+            assertEquals(1, task.getWrittenCount());
+
+            task.run();
+            assertEquals(0, task.getWrittenCount());
+            assertEquals(1, task.getUnchangedCount());
+            contents[i] = new String(Files.readAllBytes(file), "UTF-8");
+        }
+        assertEquals(contents[0], contents[1]);
+
+        String content = contents[0];
+        assertEquals(content.indexOf("#include <jni.h>"), content.lastIndexOf("#include <jni.h>"));
+        assertEquals(content.indexOf("extern \"C\""), content.lastIndexOf("extern \"C\""));
+        int n1 = content.indexOf("#ifndef _Included_" + ClassName.ofFullName(N1.class.getName()).mangledName());
+        int n2 = content.indexOf("#ifndef _Included_" + ClassName.ofFullName(N2.class.getName()).mangledName());
+        int thread = content.indexOf("#ifndef _Included_java_lang_Thread");
+        assertTrue(n1 > 0 && n1 < n2 && n2 < thread);
+        assertFalse(content.contains("Missing0"));
+    }
+
+    @Test
+    void testMetrics(@TempDir Path dir) throws Exception {
+        for (int parallelism : new int[]{1, 4}) {
+            Path outputDir = dir.resolve("out" + parallelism);
+            JavahTask task = new JavahTask();
+            task.addRuntimeSearchPath();
+            task.addClasses(Arrays.asList(CLASSES));
+            task.setOutputDir(outputDir);
+            task.setParallelism(parallelism);
+            task.setErrorHandle(new StringWriter());
+            Metrics metrics = task.run();
+
+            // The empty headers of the missing classes are written, but counted as failed
+            assertEquals(4, metrics.get(Metrics.Counter.CLASSES_WRITTEN));
+            assertEquals(3, metrics.get(Metrics.Counter.CLASSES_FAILED));
+            assertTrue(metrics.get(Metrics.Counter.LOOKUPS) >= CLASSES.length);
+            assertEquals(metrics.get(Metrics.Counter.LOOKUPS), metrics.get(Metrics.Counter.PROBES));
+            assertEquals(metrics.get(Metrics.Counter.LOOKUPS), metrics.getCount(Metrics.Phase.SEARCH));
+            assertTrue(metrics.get(Metrics.Counter.BYTES_READ) > 0);
+            assertTrue(metrics.getTotalNanos() > 0);
+
+            long size = 0;
+            try (Stream<Path> files = Files.list(outputDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    size += Files.size(file);
+                }
+            }
+            assertEquals(size, metrics.get(Metrics.Counter.BYTES_WRITTEN));
+        }
+    }
+
+    @Test
+    void testDependencyFiles(@TempDir Path dir) throws Exception {
+        Path classPath = dir.resolve("classes");
+        copyClass(N3.class, classPath);
+        Path jar = dir.resolve("lib dir/e.jar");
+        Files.createDirectories(jar.getParent());
+        String entry = E.class.getName().replace('.', '/') + ".class";
+        try (OutputStream out = Files.newOutputStream(jar);
+             ZipOutputStream zip = new ZipOutputStream(out);
+             InputStream in = E.class.getResourceAsStream("/" + entry)) {
+            zip.putNextEntry(new ZipEntry(entry));
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                zip.write(buffer, 0, n);
+            }
+            zip.closeEntry();
+        }
+
+        String[] contents = new String[3];
+        for (int i = 0; i < contents.length; i++) {
+            Path out = dir.resolve("out" + i);
+            try (JavahTask task = new JavahTask()) {
+                task.addClassPath(classPath);
+                task.addClassPath(jar);
+                task.addRuntimeSearchPath();
+                task.addClass(N3.class.getName());
+                task.setOutputDir(out);
+                task.setDependencyFiles(true);
+                // The second and third runs render the header, then take it from the header cache
+                if (i > 0) {
+                    task.setHeaderCacheDir(dir.resolve("cache"));
+                }
+                task.run();
+            }
+            String header = ClassName.ofFullName(N3.class.getName()).mangledName();
+            assertTrue(new String(Files.readAllBytes(out.resolve(header + ".h")), "UTF-8").contains("JNIEXPORT jthrowable"));
+            contents[i] = new String(Files.readAllBytes(out.resolve(header + ".d")), "UTF-8")
+                    .replace(out.toString(), "out");
+        }
+        assertEquals(contents[0], contents[1]);
+        assertEquals(contents[0], contents[2]);
+
+        String classFile = classPath.resolve(N3.class.getName().replace('.', '/') + ".class")
+                .toAbsolutePath().toString().replace("$", "$$");
+        String archive = jar.toAbsolutePath().toString().replace(" ", "\\ ");
+        assertEquals("out" + File.separator + "org_glavo_javah_JavahTaskTests__N3.h: \\\n " + classFile
+                + " \\\n " + archive + "\n\n" + classFile + ":\n\n" + archive + ":\n", contents[0]);
+    }
+}
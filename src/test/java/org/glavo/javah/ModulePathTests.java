@@ -0,0 +1,79 @@
+package org.glavo.javah;
+
+import org.glavo.javah.search.ClassIndex;
+import org.glavo.javah.search.ModulePath;
+import org.glavo.javah.search.SearchPath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModulePathTests {
+    private static void createJar(Path file, String... entries) throws Exception {
+        try (OutputStream out = Files.newOutputStream(file);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < entries.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(entries[i]));
+                zip.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+    }
+
+    private static byte[] moduleInfo(String name) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V9, Opcodes.ACC_MODULE, "module-info", null, null, null);
+        cw.visitModule(name, 0, null).visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    @Test
+    void testModuleNames(@TempDir Path dir) throws Exception {
+        try (OutputStream out = Files.newOutputStream(dir.resolve("a.jar"));
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("module-info.class"));
+            zip.write(moduleInfo("com.example.declared"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("a/A.class"));
+            zip.write('a');
+            zip.closeEntry();
+        }
+        createJar(dir.resolve("b.jar"),
+                "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nAutomatic-Module-Name: com.example.manifest\r\n\r\n",
+                "b/B.class", "b");
+        createJar(dir.resolve("foo_bar-2.1.0-SNAPSHOT.jar"), "c/C.class", "c", "a/Shadowed.class", "x");
+
+        ModulePath modulePath = new ModulePath(dir);
+        assertEquals(Arrays.asList("com.example.declared", "com.example.manifest", "foo.bar"),
+                new ArrayList<>(modulePath.moduleNames()));
+
+        assertNotNull(modulePath.search(ClassName.ofFullName("a.A")));
+        assertNotNull(modulePath.search(ClassName.ofFullName("b.B")));
+        assertNotNull(modulePath.search(ClassName.ofFullName("foo.bar/c.C")));
+        assertNotNull(modulePath.search(ClassName.ofFullName("com.example.declared/a.A")));
+        assertNull(modulePath.search(ClassName.ofFullName("com.example.manifest/a.A")));
+        assertNull(modulePath.search(ClassName.ofFullName("unknown/a.A")));
+
+        // Package a is owned by the first module that contains it
+        assertNull(modulePath.search(ClassName.ofFullName("a.Shadowed")));
+        assertNotNull(modulePath.search(ClassName.ofFullName("foo.bar/a.Shadowed")));
+
+        // The index of all modules ignores module names
+        assertNotNull(ClassIndex.of(modulePath).search(ClassName.ofFullName("a.Shadowed")));
+        assertSame(modulePath, ClassIndex.merge(Collections.singletonList(modulePath)).get(0));
+        assertNotNull(SearchPath.searchFrom(Collections.singletonList(modulePath), ClassName.ofFullName("c.C")));
+    }
+}
@@ -1,6 +1,7 @@
 package org.glavo.javah;
 
 import org.glavo.javah.util.NativeMethod;
+import org.glavo.javah.util.Utils;
 import org.junit.jupiter.api.Test;
 import org.objectweb.asm.Type;
 
@@ -32,4 +33,18 @@ public class NativeMethodTests {
 
 
     }
+
+    @Test
+    void testDescriptor() {
+        NativeMethod method = NativeMethod.of("f", "([[Ljava/lang/String;IJLa/B$C;)Ljava/lang/Object;");
+        assertEquals(method, NativeMethod.of("f", Type.getType("([[Ljava/lang/String;IJLa/B$C;)Ljava/lang/Object;")));
+        assertEquals("f__" + Utils.mangleName("[[Ljava/lang/String;IJLa/B$C;"), method.longMangledName());
+        assertEquals("g__", NativeMethod.of("g", "()V").longMangledName());
+        assertEquals(Type.getMethodType("([[Ljava/lang/String;IJLa/B$C;)Ljava/lang/Object;"), method.type());
+
+        String[] wrongs = {"", "()", "(I", "()VV", "(V)V", "()[V", "(L;)V", "(La//b;)V", "(La/b.c;)V", "(Q)V", "I"};
+        for (String descriptor : wrongs) {
+            assertThrows(IllegalArgumentException.class, () -> NativeMethod.of("f", descriptor), descriptor);
+        }
+    }
 }
@@ -0,0 +1,109 @@
+package org.glavo.javah;
+
+import org.glavo.javah.util.Utils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtilsTests {
+    private static final String[] NAMES = {
+            "", "Object", "java.lang.Object", "Native$Inner", "under_score", "([Ljava/lang/String;I)V",
+            "类名称", "close_été", "a b\tc", "~\u007f\u0000￿"
+    };
+
+    private static String mangleWithFormat(String name) {
+        StringBuilder builder = new StringBuilder();
+        for (char ch : name.toCharArray()) {
+            if (ch == '.') {
+                builder.append('_');
+            } else if (ch == '$') {
+                builder.append("__");
+            } else if (ch == '_') {
+                builder.append("_1");
+            } else if (ch == ';') {
+                builder.append("_2");
+            } else if (ch == '[') {
+                builder.append("_3");
+            } else if ((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && (ch <= 'Z'))) {
+                builder.append(ch);
+            } else {
+                builder.append(String.format("_0%04x", (int) ch));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String escapeWithFormat(String name) {
+        StringBuilder builder = new StringBuilder();
+        for (char ch : name.toCharArray()) {
+            if (ch >= ' ' && ch <= '~') {
+                builder.append(ch);
+            } else {
+                builder.append(String.format("\\u%04x", (int) ch));
+            }
+        }
+        return builder.toString();
+    }
+
+    @Test
+    void testMangleName() {
+        for (String name : NAMES) {
+            assertEquals(mangleWithFormat(name), Utils.mangleName(name), name);
+        }
+        String name = "Object";
+        assertSame(name, Utils.mangleName(name));
+    }
+
+    @Test
+    void testEscape() {
+        for (String name : NAMES) {
+            assertEquals(escapeWithFormat(name), Utils.escape(name), name);
+        }
+        String name = "java.lang.Object";
+        assertSame(name, Utils.escape(name));
+    }
+
+    @Test
+    void testClassNameInterning() {
+        ClassName name = ClassName.ofInternalName("java/util/Map$Entry");
+        assertSame(name, ClassName.ofInternalName("java/util/Map$Entry"));
+        assertSame(name, ClassName.ofFullName("java.util.Map$Entry"));
+        assertEquals("java_util_Map__Entry", name.mangledName());
+        assertEquals("java/util/Map$Entry.class", name.relativePath());
+
+        ClassName qualified = ClassName.ofFullName("java.base/java.util.Map$Entry");
+        assertNotEquals(name, qualified);
+        assertEquals(ClassName.of("java.base", "java.util.Map$Entry"), qualified);
+        assertEquals(qualified.hashCode(), ClassName.of("java.base", "java.util.Map$Entry").hashCode());
+
+        // A module-qualified name does not make the same string valid as a class name
+        assertThrows(IllegalArgumentException.class, () -> ClassName.of(null, "java.base/java.util.Map$Entry"));
+        assertThrows(IllegalArgumentException.class, () -> ClassName.ofFullName("java..Object"));
+        assertThrows(IllegalArgumentException.class, () -> ClassName.ofInternalName("java//Object"));
+    }
+
+    @Test
+    void testWriteIfChanged(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("a.h");
+        ByteBuffer content = ByteBuffer.wrap("0123456789".getBytes("UTF-8"), 2, 5);
+        assertTrue(Utils.writeIfChanged(file, content));
+        assertEquals("23456", new String(Files.readAllBytes(file), "UTF-8"));
+        assertEquals(2, content.position());
+
+        assertFalse(Utils.writeIfChanged(file, content));
+        assertTrue(Utils.writeIfChanged(file, ByteBuffer.wrap("65432".getBytes("UTF-8"))));
+        assertEquals("65432", new String(Files.readAllBytes(file), "UTF-8"));
+
+        Utils.writeAtomically(file, ByteBuffer.allocate(0));
+        assertEquals(0, Files.size(file));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+}